@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.epub.EpubReader;
+
+/**
+ * Cover extraction of the preview generator: streaming the cover entry out of
+ * the zip against reading the whole book with epublib, and the scaling step.
+ * Run with <code>-prof gc</code> to compare the allocation rate.
+ *
+ * @author thomas
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CoverExtractionBenchmark
+{
+  /** cover width x height */
+  @Param({ "600x900", "1600x2400" })
+  private String cover;
+
+  /** size of the text filler in the book */
+  @Param({ "100000", "20000000" })
+  private int filler;
+
+  private File dir;
+  private File epub;
+  private BufferedImage coverImg;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String[] wh = cover.split("x");
+    dir = Files.createTempDirectory("cover-bench").toFile();
+    epub = SyntheticLibrary.createEpub(new File(dir, "book.epub"), Integer.parseInt(wh[0]),
+        Integer.parseInt(wh[1]), filler, 42);
+    coverImg = streaming();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    SyntheticLibrary.delete(dir);
+  }
+
+  @Benchmark
+  public BufferedImage streaming() throws IOException {
+    return ImageIO.read(new ByteArrayInputStream(CoverExtractor.readCover(epub)));
+  }
+
+  @Benchmark
+  public BufferedImage epublib() throws IOException {
+    try (InputStream is = new FileInputStream(epub)) {
+      Book book = new EpubReader().readEpub(is);
+      Resource res = book.getCoverImage();
+      try (InputStream cis = res.getInputStream()) {
+        return ImageIO.read(cis);
+      }
+    }
+  }
+
+  @Benchmark
+  public BufferedImage scale(Target target) {
+    return PreviewGenerator.scale(coverImg, target.height);
+  }
+
+  /**
+   * Preview heights are only a parameter of the scaling.
+   */
+  @State(Scope.Benchmark)
+  public static class Target
+  {
+    @Param({ "160", "640" })
+    private int height;
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Downloads through the embedded server with the zero-copy path switched on
+ * and off. Throughput times the file size is the delivered bandwidth; run
+ * with <code>-prof gc</code> or an OS profiler to compare the CPU and
+ * allocation cost per download.
+ *
+ * @author thomas
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Threads(4)
+public class DownloadBenchmark
+{
+  @Param({ "true", "false" })
+  private boolean zeroCopy;
+
+  @Param({ "1048576", "52428800" })
+  private long size;
+
+  private File dir;
+  private ConfigurableApplicationContext context;
+  private HttpClient client;
+  private URI uri;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("download-bench").toFile();
+    File lib = new File(dir, "lib");
+    SyntheticLibrary.createBlob(new File(lib, "book.epub"), size, 42);
+    context = new SpringApplicationBuilder(BooksServerApplication.class).run(
+        "--server.port=0",
+        "--bookserver.ebooks.root=" + lib.getAbsolutePath(),
+        "--bookserver.preview.cache=" + new File(dir, "cache").getAbsolutePath(),
+        "--bookserver.download.zero-copy=" + zeroCopy,
+        "--bookserver.index.watch=false",
+        "--logging.level.root=WARN");
+    int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+    uri = URI.create("http://localhost:" + port + "/books/download/book.epub");
+    client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    context.close();
+    SyntheticLibrary.delete(dir);
+  }
+
+  @Benchmark
+  public long download() throws IOException, InterruptedException {
+    HttpResponse<InputStream> rsp = client.send(HttpRequest.newBuilder(uri).build(),
+        HttpResponse.BodyHandlers.ofInputStream());
+    byte[] buf = new byte[64 * 1024];
+    long total = 0;
+    try (InputStream is = rsp.body()) {
+      int n;
+      while ((n = is.read(buf)) != -1) {
+        total += n;
+      }
+    }
+    if (total != size) {
+      throw new IllegalStateException("Short download, status " + rsp.statusCode() + ": " + total);
+    }
+    return total;
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the search index and answering typical queries.
+ *
+ * @author thomas
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark
+{
+  @Param({ "1000", "100000" })
+  private int books;
+
+  private String[] paths;
+  private BookMetadata[] metadata;
+  private SearchIndex index;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random rnd = new Random(42);
+    paths = new String[books];
+    metadata = new BookMetadata[books];
+    for (int i = 0; i < books; i++) {
+      metadata[i] = SyntheticLibrary.metadata(rnd);
+      paths[i] = "shelf" + (i % 100) + "/" + metadata[i].getTitle().replace(' ', '_') + "_" + i + ".epub";
+    }
+    index = build();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public SearchIndex build() {
+    SearchIndex idx = new SearchIndex();
+    for (int i = 0; i < books; i++) {
+      idx.put(paths[i], metadata[i]);
+    }
+    return idx;
+  }
+
+  @Benchmark
+  public SearchIndex.Result search(Query q) {
+    return index.search(q.query, 0, BooksController.NUM_ROWS * BooksController.NUM_COLS);
+  }
+
+  /**
+   * Queries are only a parameter of the search, not of the index build.
+   */
+  @State(Scope.Benchmark)
+  public static class Query
+  {
+    @Param({ "nacht", "sch", "schatten mueller", "nichtvorhanden" })
+    private String query;
+  }
+}
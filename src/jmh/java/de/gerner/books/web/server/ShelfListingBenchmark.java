@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Listing and sorting of a shelf: the former list-and-sort on every request
+ * against a rescan of the shelf index and the page slice now served.
+ *
+ * @author thomas
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShelfListingBenchmark
+{
+  @Param({ "10", "1000", "50000" })
+  private int files;
+
+  private File root;
+  private File shelfDir;
+  private ShelfIndex index;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("shelf-bench").toFile();
+    shelfDir = SyntheticLibrary.createFlatShelf(new File(root, "shelf"), files, 42);
+    index = new ShelfIndex();
+    SyntheticLibrary.inject(index, "booksRoot", root.getAbsolutePath());
+    SyntheticLibrary.inject(index, "watchEnabled", false);
+    SyntheticLibrary.inject(index, "rescanInterval", 0L);
+    SyntheticLibrary.inject(index, "metrics", new BooksMetrics(new SimpleMeterRegistry()));
+    index.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    index.stop();
+    SyntheticLibrary.delete(root);
+  }
+
+  /**
+   * The listing as done by BooksController before the shelf index.
+   */
+  @Benchmark
+  public List<File> legacyListAndSort() {
+    File[] children = shelfDir.listFiles();
+    List<File> objList = new ArrayList<File>();
+    for (File child : children) {
+      objList.add(child);
+    }
+    Collections.sort(objList, new Comparator<File>() {
+
+      @Override
+      public int compare(File f1, File f2) {
+        if (f1.isDirectory()) {
+          if (f2.isDirectory()) {
+            return (int) ((f2.lastModified() - f1.lastModified()) / 1000);
+          }
+          return -1;
+        } else {
+          if (f2.isDirectory()) {
+            return 1;
+          }
+          return (int) ((f2.lastModified() - f1.lastModified()) / 1000);
+        }
+      }
+    });
+    return objList;
+  }
+
+  /**
+   * What a watch event or periodic rescan costs for the shelf.
+   */
+  @Benchmark
+  public ShelfIndex.Shelf indexRescan() {
+    return index.rescanFolder("shelf");
+  }
+
+  /**
+   * What a shelf page request costs now.
+   */
+  @Benchmark
+  public List<ShelfIndex.Entry> indexPage() {
+    List<ShelfIndex.Entry> entries = index.getShelf("shelf").getEntries();
+    int start = Math.max(0, entries.size() / 2 - 4);
+    return entries.subList(start, Math.min(entries.size(), start + 8));
+  }
+}
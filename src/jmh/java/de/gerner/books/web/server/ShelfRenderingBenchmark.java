@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ui.ExtendedModelMap;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Building the shelf page model and rendering the books template with it.
+ *
+ * @author thomas
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShelfRenderingBenchmark
+{
+  @Param({ "10", "1000", "50000" })
+  private int files;
+
+  @Param({ "1", "last" })
+  private String page;
+
+  private File root;
+  private ShelfIndex index;
+  private BooksController controller;
+  private SpringTemplateEngine engine;
+  private ExtendedModelMap model;
+  private int rqPage;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("render-bench").toFile();
+    SyntheticLibrary.createFlatShelf(new File(root, "shelf"), files, 42);
+    index = new ShelfIndex();
+    SyntheticLibrary.inject(index, "booksRoot", root.getAbsolutePath());
+    SyntheticLibrary.inject(index, "watchEnabled", false);
+    SyntheticLibrary.inject(index, "rescanInterval", 0L);
+    SyntheticLibrary.inject(index, "metrics", new BooksMetrics(new SimpleMeterRegistry()));
+    index.start();
+
+    // catalog with titles and authors for every book, without extraction
+    BookCatalog catalog = new BookCatalog();
+    Field f = BookCatalog.class.getDeclaredField("books");
+    f.setAccessible(true);
+    @SuppressWarnings("unchecked")
+    Map<String, BookMetadata> books = (Map<String, BookMetadata>) f.get(catalog);
+    Random rnd = new Random(7);
+    for (ShelfIndex.Entry e : index.getShelf("shelf").getEntries()) {
+      if (!e.isDirectory()) {
+        books.put("shelf/" + e.getName(), new BookMetadata(e.getLength(), e.getLastModified(),
+            SyntheticLibrary.title(rnd), Collections.singletonList(SyntheticLibrary.author(rnd)), "de", null, null,
+            Collections.<String>emptyList()));
+      }
+    }
+
+    controller = new BooksController();
+    SyntheticLibrary.inject(controller, "shelfIndex", index);
+    SyntheticLibrary.inject(controller, "bookCatalog", catalog);
+    SyntheticLibrary.inject(controller, "previewHeights", new int[] { 160, 320, 640 });
+    SyntheticLibrary.inject(controller, "spriteSheets", new SpriteSheets());
+
+    if ("last".equals(page)) {
+      int perPage = BooksController.NUM_ROWS * BooksController.NUM_COLS;
+      page = Integer.toString((files + perPage - 1) / perPage);
+    }
+
+    rqPage = BooksController.parsePage(page);
+
+    ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+    resolver.setPrefix("templates/");
+    resolver.setSuffix(".html");
+    resolver.setTemplateMode(TemplateMode.HTML);
+    resolver.setCharacterEncoding("UTF-8");
+    engine = new SpringTemplateEngine();
+    engine.setTemplateResolver(resolver);
+
+    model = new ExtendedModelMap();
+    controller.fillModel("shelf", rqPage, model);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    index.stop();
+    SyntheticLibrary.delete(root);
+  }
+
+  @Benchmark
+  public ExtendedModelMap buildModel() {
+    ExtendedModelMap m = new ExtendedModelMap();
+    controller.fillModel("shelf", rqPage, m);
+    return m;
+  }
+
+  @Benchmark
+  public String renderTemplate() {
+    Context ctx = new Context();
+    ctx.setVariables(model);
+    return engine.process("books", ctx);
+  }
+
+  @Benchmark
+  public String buildAndRender() {
+    ExtendedModelMap m = new ExtendedModelMap();
+    controller.fillModel("shelf", rqPage, m);
+    Context ctx = new Context();
+    ctx.setVariables(m);
+    return engine.process("books", ctx);
+  }
+}
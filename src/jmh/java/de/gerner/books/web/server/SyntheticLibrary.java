@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generates synthetic libraries for the benchmarks.
+ *
+ * @author thomas
+ *
+ */
+public final class SyntheticLibrary
+{
+  private static final String[] WORDS = { "der", "die", "das", "schatten", "nacht", "haus", "meer", "stadt",
+      "krieg", "frieden", "koenig", "reise", "sturm", "winter", "sommer", "insel", "drache", "zeit", "licht",
+      "feuer", "wolf", "rose", "spiegel", "garten", "tod", "liebe", "geheimnis", "erbe", "turm", "fluss" };
+
+  private static final String[] NAMES = { "Anna", "Ben", "Clara", "David", "Emma", "Felix", "Greta", "Hans",
+      "Ida", "Jonas", "Karl", "Lena", "Mia", "Noah", "Otto", "Paula" };
+
+  private static final String[] SURNAMES = { "Mueller", "Schmidt", "Schneider", "Fischer", "Weber", "Meyer",
+      "Wagner", "Becker", "Schulz", "Hoffmann", "Koch", "Richter", "Klein", "Wolf" };
+
+  private SyntheticLibrary() {
+  }
+
+  /**
+   * Creates a folder with the given number of small files and a few sub
+   * folders, all with distinct modification times.
+   */
+  public static File createFlatShelf(File dir, int files, long seed) throws IOException {
+    dir.mkdirs();
+    Random rnd = new Random(seed);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < files; i++) {
+      File f;
+      if (i % 50 == 0) {
+        f = new File(dir, "Folder_" + i);
+        f.mkdir();
+      } else {
+        f = new File(dir, title(rnd).replace(' ', '_') + "_" + i + ".epub");
+        Files.write(f.toPath(), new byte[] { 'P', 'K' });
+      }
+      f.setLastModified(now - rnd.nextInt(1000 * 86400) * 1000L);
+    }
+    return dir;
+  }
+
+  /**
+   * Writes an ePub with a JPEG cover of the given size and a filler chapter
+   * of random, incompressible data.
+   */
+  public static File createEpub(File file, int coverWidth, int coverHeight, int fillerBytes, long seed)
+      throws IOException {
+    Random rnd = new Random(seed);
+    file.getParentFile().mkdirs();
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+      byte[] mimetype = "application/epub+zip".getBytes(StandardCharsets.US_ASCII);
+      ZipEntry me = new ZipEntry("mimetype");
+      me.setMethod(ZipEntry.STORED);
+      me.setSize(mimetype.length);
+      CRC32 crc = new CRC32();
+      crc.update(mimetype);
+      me.setCrc(crc.getValue());
+      zip.putNextEntry(me);
+      zip.write(mimetype);
+      zip.closeEntry();
+
+      entry(zip, "META-INF/container.xml", "<?xml version=\"1.0\"?><container version=\"1.0\" "
+          + "xmlns=\"urn:oasis:names:tc:opendocument:xmlns:container\"><rootfiles><rootfile "
+          + "full-path=\"OEBPS/content.opf\" media-type=\"application/oebps-package+xml\"/></rootfiles></container>");
+      entry(zip, "OEBPS/content.opf", "<?xml version=\"1.0\"?><package xmlns=\"http://www.idpf.org/2007/opf\" "
+          + "version=\"2.0\" unique-identifier=\"uid\"><metadata xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+          + "<dc:title>" + title(rnd) + "</dc:title><dc:creator>" + author(rnd) + "</dc:creator>"
+          + "<dc:language>de</dc:language><dc:identifier id=\"uid\">urn:uuid:" + seed + "</dc:identifier>"
+          + "<meta name=\"cover\" content=\"cover\"/></metadata><manifest>"
+          + "<item id=\"cover\" href=\"images/cover.jpg\" media-type=\"image/jpeg\"/>"
+          + "<item id=\"ch1\" href=\"chapter1.xhtml\" media-type=\"application/xhtml+xml\"/>"
+          + "<item id=\"ncx\" href=\"toc.ncx\" media-type=\"application/x-dtbncx+xml\"/>"
+          + "</manifest><spine toc=\"ncx\"><itemref idref=\"ch1\"/></spine></package>");
+      entry(zip, "OEBPS/toc.ncx", "<?xml version=\"1.0\"?><ncx xmlns=\"http://www.daisy.org/z3986/2005/ncx/\" "
+          + "version=\"2005-1\"><head/><docTitle><text>t</text></docTitle><navMap><navPoint id=\"p1\" "
+          + "playOrder=\"1\"><navLabel><text>1</text></navLabel><content src=\"chapter1.xhtml\"/></navPoint>"
+          + "</navMap></ncx>");
+
+      zip.putNextEntry(new ZipEntry("OEBPS/images/cover.jpg"));
+      zip.write(cover(coverWidth, coverHeight, rnd));
+      zip.closeEntry();
+
+      zip.putNextEntry(new ZipEntry("OEBPS/chapter1.xhtml"));
+      zip.write("<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><p>".getBytes(StandardCharsets.UTF_8));
+      byte[] chunk = new byte[64 * 1024];
+      for (int written = 0; written < fillerBytes; written += chunk.length) {
+        for (int i = 0; i < chunk.length; i++) {
+          chunk[i] = (byte) ('a' + rnd.nextInt(26));
+        }
+        zip.write(chunk, 0, Math.min(chunk.length, fillerBytes - written));
+      }
+      zip.write("</p></body></html>".getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+    }
+    return file;
+  }
+
+  /**
+   * Writes a file of random content.
+   */
+  public static File createBlob(File file, long size, long seed) throws IOException {
+    Random rnd = new Random(seed);
+    file.getParentFile().mkdirs();
+    byte[] chunk = new byte[1024 * 1024];
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (long written = 0; written < size; written += chunk.length) {
+        rnd.nextBytes(chunk);
+        out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+      }
+    }
+    return file;
+  }
+
+  public static BookMetadata metadata(Random rnd) {
+    return new BookMetadata(1, 1, title(rnd), java.util.Collections.singletonList(author(rnd)), "de",
+        rnd.nextInt(4) == 0 ? title(rnd) : null, null, java.util.Collections.<String>emptyList());
+  }
+
+  public static String title(Random rnd) {
+    StringBuilder sb = new StringBuilder();
+    int n = 2 + rnd.nextInt(4);
+    for (int i = 0; i < n; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      String w = WORDS[rnd.nextInt(WORDS.length)];
+      sb.append(Character.toUpperCase(w.charAt(0))).append(w.substring(1));
+    }
+    return sb.toString();
+  }
+
+  public static String author(Random rnd) {
+    return NAMES[rnd.nextInt(NAMES.length)] + " " + SURNAMES[rnd.nextInt(SURNAMES.length)];
+  }
+
+  /**
+   * Sets a field the Spring context would inject.
+   */
+  public static void inject(Object target, String field, Object value) {
+    try {
+      Field f = target.getClass().getDeclaredField(field);
+      f.setAccessible(true);
+      f.set(target, value);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static void delete(File dir) throws IOException {
+    if (!dir.exists()) {
+      return;
+    }
+    Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+        Files.delete(d);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private static void entry(ZipOutputStream zip, String name, String content) throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(content.getBytes(StandardCharsets.UTF_8));
+    zip.closeEntry();
+  }
+
+  private static byte[] cover(int width, int height, Random rnd) throws IOException {
+    BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = img.createGraphics();
+    for (int i = 0; i < 200; i++) {
+      g.setColor(new Color(rnd.nextInt(0xffffff)));
+      g.fillRect(rnd.nextInt(width), rnd.nextInt(height), 1 + rnd.nextInt(width / 2), 1 + rnd.nextInt(height / 2));
+    }
+    g.dispose();
+    // some noise, real covers do not compress like flat rectangles
+    for (int i = 0; i < width * height / 16; i++) {
+      img.setRGB(rnd.nextInt(width), rnd.nextInt(height), rnd.nextInt(0xffffff));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(img, "jpg", out);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Generates the library for the load test: a tree of shelves <code>depth</code>
+ * levels deep with <code>fanout</code> sub shelves each, every shelf holding
+ * <code>books</code> ePubs with covers of the given size, plus a
+ * <code>Downloads</code> shelf of large books. A library generated with the
+ * same settings before is reused.
+ *
+ * @author thomas
+ *
+ */
+final class LibraryGenerator
+{
+  static final String DOWNLOADS = "Downloads";
+
+  private static final String SETTINGS = ".loadtest.properties";
+
+  private LibraryGenerator() {
+  }
+
+  static Library generate(File root, LoadTest.Options o) throws IOException {
+    Properties settings = new Properties();
+    for (String key : new String[] { "depth", "fanout", "books", "book-size", "cover", "downloads",
+        "download-size" }) {
+      settings.setProperty(key, o.get(key));
+    }
+    File marker = new File(root, SETTINGS);
+    if (!settings.equals(load(marker))) {
+      SyntheticLibrary.delete(root);
+      root.mkdirs();
+      long t0 = System.currentTimeMillis();
+      String[] cover = o.get("cover").split("x");
+      int[] seed = new int[1];
+      shelf(root, o.getInt("depth"), o.getInt("fanout"), o.getInt("books"), o.getLong("book-size"),
+          Integer.parseInt(cover[0]), Integer.parseInt(cover[1]), seed);
+      File downloads = new File(root, DOWNLOADS);
+      for (int i = 0; i < o.getInt("downloads"); i++) {
+        SyntheticLibrary.createBlob(new File(downloads, "Large_" + i + ".epub"), o.getLong("download-size"), i);
+      }
+      try (OutputStream out = new FileOutputStream(marker)) {
+        settings.store(out, null);
+      }
+      System.out.printf("Generated library of %d books in %d s%n", seed[0],
+          (System.currentTimeMillis() - t0) / 1000);
+    }
+    return scan(root);
+  }
+
+  private static void shelf(File dir, int depth, int fanout, int books, long bookSize, int coverWidth,
+      int coverHeight, int[] seed) throws IOException {
+    for (int i = 0; i < books; i++) {
+      int s = seed[0]++;
+      SyntheticLibrary.createEpub(new File(dir, "Book_" + s + ".epub"), coverWidth, coverHeight, (int) bookSize, s);
+    }
+    if (depth > 0) {
+      for (int i = 0; i < fanout; i++) {
+        shelf(new File(dir, "Shelf_" + i), depth - 1, fanout, books, bookSize, coverWidth, coverHeight, seed);
+      }
+    }
+  }
+
+  private static Properties load(File f) throws IOException {
+    Properties p = new Properties();
+    if (f.isFile()) {
+      try (InputStream in = new FileInputStream(f)) {
+        p.load(in);
+      }
+    }
+    return p;
+  }
+
+  private static Library scan(File root) throws IOException {
+    Library lib = new Library();
+    Path r = root.toPath();
+    try (Stream<Path> paths = Files.walk(r)) {
+      paths.forEach(p -> {
+        String rel = r.relativize(p).toString().replace(File.separatorChar, '/');
+        if (Files.isDirectory(p)) {
+          if (!rel.equals(DOWNLOADS)) {
+            lib.shelves.add(rel);
+          }
+        } else if (rel.startsWith(DOWNLOADS + "/")) {
+          lib.downloads.add(rel);
+        } else if (rel.endsWith(".epub")) {
+          lib.books.add(rel);
+        }
+      });
+    }
+    Collections.sort(lib.shelves);
+    Collections.sort(lib.books);
+    Collections.sort(lib.downloads);
+    return lib;
+  }
+
+  /**
+   * Paths of the generated library relative to its root.
+   */
+  static final class Library {
+
+    final List<String> shelves = new ArrayList<>();
+    final List<String> books = new ArrayList<>();
+    final List<String> downloads = new ArrayList<>();
+  }
+}
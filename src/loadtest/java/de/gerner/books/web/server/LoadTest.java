@@ -0,0 +1,384 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.springframework.web.util.UriUtils;
+
+/**
+ * End to end load test on localhost. Generates a synthetic library, starts
+ * the server on it in a JVM of its own and drives a mix of workloads with
+ * the {@link OpenLoadGenerator}:
+ * <ul>
+ * <li><code>shelf</code> random shelf pages</li>
+ * <li><code>api</code> random JSON shelf listings</li>
+ * <li><code>thumb-warm</code> previews generated before the run</li>
+ * <li><code>thumb-cold</code> previews requested for the first time</li>
+ * <li><code>download</code> large books</li>
+ * </ul>
+ * Reports throughput and latency percentiles per workload and the server's
+ * heap and GC statistics, the full histograms are written next to the
+ * report. Run with
+ * <pre>
+ *   mvn -P loadtest verify -Dloadtest.args="--rate=200 --duration=60"
+ * </pre>
+ * Options are given as <code>--name=value</code>, see {@link Options}. All
+ * other arguments are passed to the server, like
+ * <code>--server.jetty.selectors=8</code>. <code>--compare=property=a|b</code>
+ * runs the test once per value on a freshly started server and compares
+ * the results. <code>--replicas=N</code> runs the {@link SharedCacheCheck}
+ * with N servers on one preview cache instead.
+ *
+ * @author thomas
+ *
+ */
+public final class LoadTest
+{
+  private LoadTest() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options o = new Options(args);
+    File out = new File(o.get("out"));
+    File libDir = new File(out, "library").getAbsoluteFile();
+    LibraryGenerator.Library lib = LibraryGenerator.generate(libDir, o);
+    System.out.printf("Library: %d shelves, %d books, %d large downloads%n", lib.shelves.size(), lib.books.size(),
+        lib.downloads.size());
+
+    HttpClient client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(10))
+        .build();
+    if (o.getInt("replicas") > 1) {
+      if (!SharedCacheCheck.run(o, lib, libDir, client, out)) {
+        System.exit(1);
+      }
+      return;
+    }
+
+    List<String> variants = new ArrayList<>();
+    String compare = o.get("compare");
+    if (compare.isEmpty()) {
+      variants.add("");
+    } else {
+      int eq = compare.indexOf('=');
+      for (String v : compare.substring(eq + 1).split("\\|")) {
+        variants.add("--" + compare.substring(0, eq) + "=" + v);
+      }
+    }
+
+    Map<String, Map<String, OpenLoadGenerator.Stats>> results = new LinkedHashMap<>();
+    for (String variant : variants) {
+      String label = variant.isEmpty() ? "default" : variant.substring(2);
+      File dir = new File(out, variant.isEmpty() ? "default" : label.replaceAll("[^A-Za-z0-9.-]", "_"));
+      File cache = new File(dir, "cache").getAbsoluteFile();
+      SyntheticLibrary.delete(cache);
+
+      List<String> appArgs = new ArrayList<>();
+      appArgs.add("--bookserver.ebooks.root=" + libDir);
+      appArgs.add("--bookserver.preview.cache=" + cache);
+      appArgs.add("--bookserver.prewarm.on-startup=false");
+      appArgs.addAll(o.serverArgs);
+      if (!variant.isEmpty()) {
+        appArgs.add(variant);
+      }
+      System.out.printf("%n== %s ==%n", label);
+      try (ServerProcess server = ServerProcess.start(Arrays.asList(o.get("jvm").split(" ")), appArgs,
+          new File(dir, "server.log"), client)) {
+        results.put(label, run(o, lib, libDir, server, client, dir));
+      }
+    }
+    if (results.size() > 1) {
+      System.out.println(compare(results));
+    }
+  }
+
+  private static Map<String, OpenLoadGenerator.Stats> run(Options o, LibraryGenerator.Library lib, File libDir,
+      ServerProcess server, HttpClient client, File dir) throws IOException, InterruptedException {
+    List<String> shelfPages = new ArrayList<>();
+    List<String> listings = new ArrayList<>();
+    for (String shelf : lib.shelves) {
+      String[] children = new File(libDir, shelf).list();
+      int pages = Math.max(1, (children.length + 7) / 8);
+      for (int p = 1; p <= pages; p++) {
+        shelfPages.add("/books/shelf/" + encode(shelf) + "?page=" + p);
+      }
+      listings.add("/books/api/shelf/" + encode(shelf));
+    }
+    List<String> previews = new ArrayList<>();
+    for (String book : lib.books) {
+      previews.add("/books/image/" + encode(book.substring(0, book.length() - 5)));
+    }
+    Collections.shuffle(previews, new Random(7));
+    int warm = Math.min(o.getInt("warm-previews"), previews.size() / 2);
+    List<String> warmPreviews = previews.subList(0, warm);
+    List<String> coldPreviews = previews.subList(warm, previews.size());
+    List<String> downloads = new ArrayList<>();
+    for (String d : lib.downloads) {
+      downloads.add("/books/download/" + encode(d));
+    }
+
+    // previews of the warm set are generated and the JIT gets going before measuring
+    for (String p : warmPreviews) {
+      client.send(HttpRequest.newBuilder(server.uri(p)).build(), HttpResponse.BodyHandlers.discarding());
+    }
+    Map<String, OpenLoadGenerator.Workload> all = new LinkedHashMap<>();
+    all.put("shelf", new OpenLoadGenerator.Workload(0, OpenLoadGenerator.Workload.random(server, shelfPages, 1)));
+    all.put("api", new OpenLoadGenerator.Workload(0, OpenLoadGenerator.Workload.random(server, listings, 2)));
+    all.put("thumb-warm", new OpenLoadGenerator.Workload(0, OpenLoadGenerator.Workload.random(server,
+        warmPreviews, 3)));
+    all.put("thumb-cold", new OpenLoadGenerator.Workload(0, OpenLoadGenerator.Workload.cycle(server,
+        coldPreviews)));
+    all.put("download", new OpenLoadGenerator.Workload(0, OpenLoadGenerator.Workload.random(server, downloads, 4)));
+    Map<String, OpenLoadGenerator.Workload> mix = new LinkedHashMap<>();
+    Map<String, OpenLoadGenerator.Workload> warmup = new LinkedHashMap<>();
+    for (String part : o.get("mix").split(",")) {
+      String[] nw = part.split(":");
+      OpenLoadGenerator.Workload w = all.get(nw[0]);
+      if (w == null) {
+        throw new IllegalArgumentException("Unknown workload " + nw[0] + ", known are " + all.keySet());
+      }
+      if ((nw[0].equals("download") && downloads.isEmpty()) || Integer.parseInt(nw[1]) <= 0) {
+        continue;
+      }
+      w = new OpenLoadGenerator.Workload(Integer.parseInt(nw[1]), w.targets);
+      mix.put(nw[0], w);
+      if (!nw[0].equals("thumb-cold")) {
+        warmup.put(nw[0], w);
+      }
+    }
+    int maxOutstanding = o.getInt("max-outstanding");
+    double rate = o.getDouble("rate");
+    OpenLoadGenerator.Workload cold = mix.get("thumb-cold");
+    if (cold != null) {
+      int total = 0;
+      for (OpenLoadGenerator.Workload w : mix.values()) {
+        total += w.weight;
+      }
+      double expected = rate * o.getInt("duration") * cold.weight / total;
+      if (expected > coldPreviews.size()) {
+        System.out.printf("thumb-cold expects %.0f requests for %d books, later ones hit generated previews%n",
+            expected, coldPreviews.size());
+      }
+    }
+    if (o.getInt("warmup") > 0 && !warmup.isEmpty()) {
+      System.out.printf("Warming up for %d s%n", o.getInt("warmup"));
+      new OpenLoadGenerator(client, warmup, maxOutstanding).run(rate, Duration.ofSeconds(o.getInt("warmup")));
+    }
+
+    System.out.printf("Running %s at %.0f requests/s for %d s%n", mix.keySet(), rate, o.getInt("duration"));
+    JvmSampler sampler = new JvmSampler(server, client);
+    sampler.start();
+    Map<String, OpenLoadGenerator.Stats> stats;
+    try {
+      stats = new OpenLoadGenerator(client, mix, maxOutstanding).run(rate, Duration.ofSeconds(o.getInt("duration")));
+    } finally {
+      sampler.finish();
+    }
+
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%-11s %8s %8s %9s %9s %9s %9s %7s %7s %9s  %s%n", "workload", "count", "req/s",
+        "p50 ms", "p99 ms", "p999 ms", "max ms", "errors", "dropped", "MB/s", "status"));
+    for (Map.Entry<String, OpenLoadGenerator.Stats> e : stats.entrySet()) {
+      OpenLoadGenerator.Stats s = e.getValue();
+      report.append(String.format("%-11s %8d %8.1f %9.2f %9.2f %9.2f %9.2f %7d %7d %9.2f  %s%n", e.getKey(),
+          s.count(), s.throughput(), s.millis(s.response, 50), s.millis(s.response, 99), s.millis(s.response, 99.9),
+          s.response.getMaxValue() / 1e6, s.errors.sum(), s.dropped.sum(),
+          s.bytes.sum() / 1048576.0 / (s.elapsedNanos / 1e9), s.statusCodes()));
+      s.writeHistograms(dir, e.getKey());
+    }
+    report.append(sampler.summary());
+    System.out.print(report);
+    Files.write(new File(dir, "report.txt").toPath(), report.toString().getBytes(StandardCharsets.UTF_8));
+    System.out.printf("Histograms and report written to %s%n", dir);
+    return stats;
+  }
+
+  private static String compare(Map<String, Map<String, OpenLoadGenerator.Stats>> results) {
+    StringBuilder sb = new StringBuilder(String.format("%n== comparison ==%n%-11s %-40s %8s %9s %9s %9s%n",
+        "workload", "variant", "req/s", "p50 ms", "p99 ms", "p999 ms"));
+    String first = results.keySet().iterator().next();
+    for (String workload : results.get(first).keySet()) {
+      for (Map.Entry<String, Map<String, OpenLoadGenerator.Stats>> e : results.entrySet()) {
+        OpenLoadGenerator.Stats s = e.getValue().get(workload);
+        sb.append(String.format("%-11s %-40s %8.1f %9.2f %9.2f %9.2f%n", workload, e.getKey(), s.throughput(),
+            s.millis(s.response, 50), s.millis(s.response, 99), s.millis(s.response, 99.9)));
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String encode(String path) {
+    return UriUtils.encodePath(path, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Samples the server's heap and threads once a second during the run and
+   * takes the GC counters before and after.
+   */
+  private static final class JvmSampler extends Thread {
+
+    private final ServerProcess server;
+    private final HttpClient client;
+    private volatile boolean done;
+    private Map<String, Double> before;
+    private Map<String, Double> after;
+    private double peakHeap;
+    private double peakThreads;
+
+    JvmSampler(ServerProcess server, HttpClient client) throws IOException, InterruptedException {
+      super("jvm-sampler");
+      setDaemon(true);
+      this.server = server;
+      this.client = client;
+      this.before = server.scrape(client);
+    }
+
+    @Override
+    public void run() {
+      while (!done) {
+        try {
+          sample(server.scrape(client));
+          Thread.sleep(1000);
+        } catch (IOException e) {
+          // a slow scrape under load is skipped
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    private synchronized void sample(Map<String, Double> m) {
+      peakHeap = Math.max(peakHeap, m.getOrDefault("jvm_memory_used_bytes{area=heap}", 0.0));
+      peakThreads = Math.max(peakThreads, m.getOrDefault("jvm_threads_live_threads", 0.0));
+    }
+
+    void finish() throws IOException, InterruptedException {
+      done = true;
+      interrupt();
+      join();
+      after = server.scrape(client);
+      sample(after);
+    }
+
+    synchronized String summary() {
+      double mb = 1048576.0;
+      return String.format("server JVM: heap used %.0f MB, peak %.0f MB of %.0f MB max; %.0f GC pauses taking "
+          + "%.0f ms, longest %.1f ms; %.0f MB allocated; %.0f live threads at peak%n",
+          after.getOrDefault("jvm_memory_used_bytes{area=heap}", 0.0) / mb, peakHeap / mb,
+          after.getOrDefault("jvm_memory_max_bytes{area=heap}", 0.0) / mb,
+          delta("jvm_gc_pause_seconds_count"), delta("jvm_gc_pause_seconds_sum") * 1000,
+          after.getOrDefault("jvm_gc_pause_seconds_max", 0.0) * 1000,
+          delta("jvm_gc_memory_allocated_bytes_total") / mb, peakThreads);
+    }
+
+    private double delta(String name) {
+      return after.getOrDefault(name, 0.0) - before.getOrDefault(name, 0.0);
+    }
+  }
+
+  /**
+   * Options of the load test with their defaults. Sizes are in bytes,
+   * durations in seconds, the rate in requests per second over all
+   * workloads; <code>mix</code> gives the weight of each workload.
+   */
+  static final class Options {
+
+    private static final String[][] DEFAULTS = {
+        { "depth", "2" },
+        { "fanout", "4" },
+        { "books", "24" },
+        { "book-size", "102400" },
+        { "cover", "600x900" },
+        { "downloads", "4" },
+        { "download-size", "20971520" },
+        { "rate", "100" },
+        { "duration", "30" },
+        { "warmup", "10" },
+        { "warm-previews", "32" },
+        { "mix", "shelf:55,api:5,thumb-warm:25,thumb-cold:10,download:5" },
+        { "max-outstanding", "10000" },
+        { "compare", "" },
+        { "replicas", "1" },
+        { "jvm", "-Xmx512m" },
+        { "out", "target/loadtest" } };
+
+    private final Map<String, String> values = new LinkedHashMap<>();
+
+    /** arguments passed on to the server */
+    final List<String> serverArgs = new ArrayList<>();
+
+    Options(String[] args) {
+      for (String[] d : DEFAULTS) {
+        values.put(d[0], d[1]);
+      }
+      for (String arg : args) {
+        int eq = arg.indexOf('=');
+        String key = arg.startsWith("--") && eq != -1 ? arg.substring(2, eq) : null;
+        if (key != null && values.containsKey(key)) {
+          values.put(key, arg.substring(eq + 1));
+        } else if (!arg.isEmpty()) {
+          serverArgs.add(arg);
+        }
+      }
+    }
+
+    String get(String key) {
+      return values.get(key);
+    }
+
+    int getInt(String key) {
+      return Integer.parseInt(get(key));
+    }
+
+    long getLong(String key) {
+      return Long.parseLong(get(key));
+    }
+
+    double getDouble(String key) {
+      return Double.parseDouble(get(key));
+    }
+  }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Open model load generator. Requests are started at a fixed rate on a
+ * schedule that does not wait for responses, each picks a workload by its
+ * weight. Response times are measured from the time the request was
+ * scheduled for, not from when it was actually sent, so a stalled server or
+ * a late generator shows up in the latencies instead of silently lowering
+ * the load (coordinated omission). The time from sending is kept as service
+ * time.
+ *
+ * @author thomas
+ *
+ */
+final class OpenLoadGenerator
+{
+  /** highest recordable latency, longer ones are clamped */
+  private static final long MAX_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  private final HttpClient client;
+  private final Map<String, Workload> workloads;
+  private final int totalWeight;
+  private final int maxOutstanding;
+  private final Random rnd = new Random(42);
+
+  /**
+   * @param workloads the workloads by name
+   * @param maxOutstanding requests in flight after which further ones are
+   *          counted as dropped instead of sent
+   */
+  OpenLoadGenerator(HttpClient client, Map<String, Workload> workloads, int maxOutstanding) {
+    this.client = client;
+    this.workloads = workloads;
+    this.maxOutstanding = maxOutstanding;
+    int w = 0;
+    for (Workload wl : workloads.values()) {
+      w += wl.weight;
+    }
+    this.totalWeight = w;
+  }
+
+  /**
+   * Runs the load and waits for the outstanding requests.
+   *
+   * @param rate requests per second over all workloads
+   * @return the statistics per workload
+   */
+  Map<String, Stats> run(double rate, Duration duration) throws InterruptedException {
+    Map<String, Stats> stats = new LinkedHashMap<>();
+    for (String name : workloads.keySet()) {
+      stats.put(name, new Stats());
+    }
+    AtomicInteger outstanding = new AtomicInteger();
+    long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    long start = System.nanoTime();
+    long end = start + duration.toNanos();
+    for (long i = 0;; i++) {
+      long intended = start + i * interval;
+      if (intended >= end) {
+        break;
+      }
+      long wait = intended - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      String name = pick();
+      Stats s = stats.get(name);
+      if (outstanding.get() >= maxOutstanding) {
+        s.dropped.increment();
+        continue;
+      }
+      HttpRequest req = HttpRequest.newBuilder(workloads.get(name).targets.get())
+          .timeout(Duration.ofMinutes(5))
+          .header("Accept", "text/html,image/*,*/*")
+          .build();
+      outstanding.incrementAndGet();
+      long sent = System.nanoTime();
+      client.sendAsync(req, HttpResponse.BodyHandlers.ofByteArrayConsumer(b -> b.ifPresent(d -> s.bytes.add(d.length))))
+          .whenComplete((rsp, t) -> {
+            long done = System.nanoTime();
+            s.response.recordValue(Math.min(done - intended, MAX_NANOS));
+            s.service.recordValue(Math.min(done - sent, MAX_NANOS));
+            if (t != null) {
+              s.errors.increment();
+            } else {
+              s.status.computeIfAbsent(rsp.statusCode(), c -> new LongAdder()).increment();
+            }
+            outstanding.decrementAndGet();
+          });
+    }
+    long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+    while (outstanding.get() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    long elapsed = System.nanoTime() - start;
+    for (Stats s : stats.values()) {
+      s.elapsedNanos = elapsed;
+    }
+    return stats;
+  }
+
+  private String pick() {
+    int r = rnd.nextInt(totalWeight);
+    for (Map.Entry<String, Workload> e : workloads.entrySet()) {
+      r -= e.getValue().weight;
+      if (r < 0) {
+        return e.getKey();
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * A kind of request with its share of the load.
+   */
+  static final class Workload {
+
+    final int weight;
+    final Supplier<URI> targets;
+
+    Workload(int weight, Supplier<URI> targets) {
+      this.weight = weight;
+      this.targets = targets;
+    }
+
+    /**
+     * @return targets cycling through the paths in order
+     */
+    static Supplier<URI> cycle(ServerProcess server, List<String> paths) {
+      AtomicInteger next = new AtomicInteger();
+      return () -> server.uri(paths.get(Math.floorMod(next.getAndIncrement(), paths.size())));
+    }
+
+    /**
+     * @return targets picked at random from the paths
+     */
+    static Supplier<URI> random(ServerProcess server, List<String> paths, long seed) {
+      Random rnd = new Random(seed);
+      return () -> server.uri(paths.get(rnd.nextInt(paths.size())));
+    }
+  }
+
+  /**
+   * Outcome of one workload, latencies in nanoseconds.
+   */
+  static final class Stats {
+
+    final Histogram response = new ConcurrentHistogram(MAX_NANOS, 3);
+    final Histogram service = new ConcurrentHistogram(MAX_NANOS, 3);
+    final Map<Integer, LongAdder> status = new ConcurrentHashMap<>();
+    final LongAdder errors = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    long elapsedNanos;
+
+    long count() {
+      return response.getTotalCount();
+    }
+
+    double throughput() {
+      return count() * 1e9 / elapsedNanos;
+    }
+
+    double millis(Histogram h, double percentile) {
+      return h.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    String statusCodes() {
+      return new TreeMap<>(status).toString();
+    }
+
+    /**
+     * Writes the percentile distributions of both histograms in milliseconds,
+     * readable by the HdrHistogram plotter.
+     */
+    void writeHistograms(File dir, String name) throws IOException {
+      dir.mkdirs();
+      try (PrintStream out = new PrintStream(new FileOutputStream(new File(dir, name + ".hgrm")))) {
+        response.outputPercentileDistribution(out, 1e6);
+      }
+      try (PrintStream out = new PrintStream(new FileOutputStream(new File(dir, name + "-service.hgrm")))) {
+        service.outputPercentileDistribution(out, 1e6);
+      }
+    }
+  }
+}
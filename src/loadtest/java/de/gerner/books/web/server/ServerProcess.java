@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The server under test, started in a JVM of its own so its heap and garbage
+ * collection are not mixed up with the load generator's. Its JVM statistics
+ * are read from the Prometheus endpoint of the actuator.
+ *
+ * @author thomas
+ *
+ */
+final class ServerProcess implements Closeable
+{
+  private final Process process;
+  private final int port;
+
+  private ServerProcess(Process process, int port) {
+    this.process = process;
+    this.port = port;
+  }
+
+  /**
+   * Starts the server with the class path of the load test and waits until
+   * it reports healthy.
+   *
+   * @param jvmArgs options of the server JVM
+   * @param appArgs application arguments, the port is added
+   * @param log file receiving the server's output
+   */
+  static ServerProcess start(List<String> jvmArgs, List<String> appArgs, File log, HttpClient client)
+      throws IOException, InterruptedException {
+    int port;
+    try (ServerSocket s = new ServerSocket(0)) {
+      port = s.getLocalPort();
+    }
+    List<String> cmd = new ArrayList<>();
+    cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+    cmd.addAll(jvmArgs);
+    cmd.add("-cp");
+    cmd.add(System.getProperty("java.class.path"));
+    cmd.add(BooksServerApplication.class.getName());
+    cmd.add("--server.port=" + port);
+    cmd.add("--server.address=127.0.0.1");
+    cmd.addAll(appArgs);
+    log.getParentFile().mkdirs();
+    Process p = new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(log).start();
+    ServerProcess server = new ServerProcess(p, port);
+
+    HttpRequest health = HttpRequest.newBuilder(server.uri("/actuator/health")).timeout(Duration.ofSeconds(5)).build();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+    while (System.nanoTime() < deadline) {
+      if (!p.isAlive()) {
+        throw new IOException("Server exited with " + p.exitValue() + ", see " + log);
+      }
+      try {
+        if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+          return server;
+        }
+      } catch (IOException e) {
+        // not listening yet
+      }
+      Thread.sleep(250);
+    }
+    server.close();
+    throw new IOException("Server did not get healthy, see " + log);
+  }
+
+  URI uri(String pathAndQuery) {
+    return URI.create("http://127.0.0.1:" + port + pathAndQuery);
+  }
+
+  int getPort() {
+    return port;
+  }
+
+  /**
+   * Reads the Prometheus endpoint and sums the samples of each metric over
+   * all label sets, except <code>_max</code> metrics which keep the maximum.
+   * Samples of <code>jvm_memory_*</code> are split by their area label, like
+   * <code>jvm_memory_used_bytes{area=heap}</code>.
+   */
+  Map<String, Double> scrape(HttpClient client) throws IOException, InterruptedException {
+    Map<String, Double> metrics = new HashMap<>();
+    for (String line : prometheus(client)) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      int space = line.lastIndexOf(' ');
+      int brace = line.indexOf('{');
+      String name = line.substring(0, brace == -1 || brace > space ? space : brace);
+      if (name.startsWith("jvm_memory_") && line.contains("area=\"")) {
+        int a = line.indexOf("area=\"") + 6;
+        name = name + "{area=" + line.substring(a, line.indexOf('"', a)) + "}";
+      }
+      double value;
+      try {
+        value = Double.parseDouble(line.substring(space + 1));
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      if (Double.isNaN(value) || value < 0) {
+        continue;
+      }
+      if (name.endsWith("_max")) {
+        metrics.merge(name, value, Math::max);
+      } else {
+        metrics.merge(name, value, Double::sum);
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * @param sample name and leading labels of a Prometheus sample, like
+   *          <code>bookserver_preview_leases_total{outcome="waited"</code>
+   * @return the sum of the samples starting with it
+   */
+  double sample(HttpClient client, String sample) throws IOException, InterruptedException {
+    double sum = 0;
+    for (String line : prometheus(client)) {
+      if (line.startsWith(sample)) {
+        sum += Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+      }
+    }
+    return sum;
+  }
+
+  private String[] prometheus(HttpClient client) throws IOException, InterruptedException {
+    HttpRequest req = HttpRequest.newBuilder(uri("/actuator/prometheus")).timeout(Duration.ofSeconds(10)).build();
+    return client.send(req, HttpResponse.BodyHandlers.ofString()).body().split("\n");
+  }
+
+  @Override
+  public void close() {
+    process.destroy();
+    try {
+      if (!process.waitFor(30, TimeUnit.SECONDS)) {
+        process.destroyForcibly().waitFor();
+      }
+    } catch (InterruptedException e) {
+      process.destroyForcibly();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
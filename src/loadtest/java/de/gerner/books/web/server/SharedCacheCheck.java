@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.springframework.web.util.UriUtils;
+
+/**
+ * Checks the shared preview cache with several servers on one cache folder.
+ * Every server is asked for every preview at the same time, first with one
+ * server and then with <code>replicas</code> servers, each time on an empty
+ * cache. All answers must be complete images and the servers together must
+ * generate as many previews as the single server did.
+ *
+ * @author thomas
+ *
+ */
+final class SharedCacheCheck
+{
+  private SharedCacheCheck() {
+  }
+
+  /**
+   * @return <code>true</code> if the check passed
+   */
+  static boolean run(LoadTest.Options o, LibraryGenerator.Library lib, File libDir, HttpClient client, File out)
+      throws IOException, InterruptedException {
+    List<String> previews = new ArrayList<>();
+    for (String book : lib.books) {
+      previews.add("/books/image/" + UriUtils.encodePath(book.substring(0, book.length() - 5),
+          StandardCharsets.UTF_8));
+    }
+    Result single = run(o, previews, libDir, client, new File(out, "shared-1"), 1);
+    Result shared = run(o, previews, libDir, client, new File(out, "shared-" + o.getInt("replicas")),
+        o.getInt("replicas"));
+    boolean passed = single.broken == 0 && shared.broken == 0 && single.generated == shared.generated;
+    System.out.printf("%nShared cache %s: %d previews generated by 1 server, %d by %d servers%n",
+        passed ? "passed" : "FAILED", single.generated, shared.generated, o.getInt("replicas"));
+    return passed;
+  }
+
+  private static Result run(LoadTest.Options o, List<String> previews, File libDir, HttpClient client, File dir,
+      int replicas) throws IOException, InterruptedException {
+    File cache = new File(dir, "cache").getAbsoluteFile();
+    SyntheticLibrary.delete(cache);
+    List<String> appArgs = new ArrayList<>();
+    appArgs.add("--bookserver.ebooks.root=" + libDir);
+    appArgs.add("--bookserver.preview.cache=" + cache);
+    appArgs.add("--bookserver.prewarm.on-startup=false");
+    appArgs.add("--bookserver.preview.shared=true");
+    appArgs.addAll(o.serverArgs);
+    System.out.printf("%n== %d server(s) sharing %s ==%n", replicas, cache);
+
+    List<ServerProcess> servers = new ArrayList<>();
+    ExecutorService pool = Executors.newFixedThreadPool(4 * replicas);
+    try {
+      for (int i = 0; i < replicas; i++) {
+        // the catalog and the change journal are never shared
+        File catalog = new File(dir, "catalog-" + i + ".dat").getAbsoluteFile();
+        File changes = new File(dir, "changes-" + i + ".dat").getAbsoluteFile();
+        catalog.delete();
+        changes.delete();
+        List<String> serverArgs = new ArrayList<>(appArgs);
+        serverArgs.add("--bookserver.catalog.file=" + catalog);
+        serverArgs.add("--bookserver.changes.file=" + changes);
+        servers.add(ServerProcess.start(Arrays.asList(o.get("jvm").split(" ")), serverArgs,
+            new File(dir, "server-" + i + ".log"), client));
+      }
+      AtomicInteger broken = new AtomicInteger();
+      List<Future<?>> requests = new ArrayList<>();
+      long t0 = System.nanoTime();
+      for (String preview : previews) {
+        for (ServerProcess server : servers) {
+          requests.add(pool.submit(() -> {
+            if (!fetch(client, server, preview)) {
+              broken.incrementAndGet();
+            }
+            return null;
+          }));
+        }
+      }
+      for (Future<?> f : requests) {
+        try {
+          f.get();
+        } catch (Exception e) {
+          System.out.println("Request failed: " + e.getCause());
+          broken.incrementAndGet();
+        }
+      }
+      long ms = (System.nanoTime() - t0) / 1000000;
+
+      Result r = new Result();
+      r.broken = broken.get();
+      for (int i = 0; i < replicas; i++) {
+        ServerProcess server = servers.get(i);
+        long generated = Math.round(server.sample(client,
+            "bookserver_preview_generation_seconds_count{step=\"generate\""));
+        long waited = Math.round(server.sample(client, "bookserver_preview_leases_total{outcome=\"waited\""));
+        long expired = Math.round(server.sample(client, "bookserver_preview_leases_total{outcome=\"expired\""));
+        System.out.printf("server %d: %d previews generated, waited for %d, %d leases broken%n", i, generated,
+            waited, expired);
+        r.generated += generated;
+      }
+      System.out.printf("%d requests for %d previews in %d ms, %d generated, %d broken answers%n", requests.size(),
+          previews.size(), ms, r.generated, r.broken);
+      return r;
+    } finally {
+      pool.shutdownNow();
+      for (ServerProcess server : servers) {
+        server.close();
+      }
+    }
+  }
+
+  /**
+   * Requests a preview until it is ready, the placeholder sent while it is
+   * being generated asks to retry.
+   *
+   * @return <code>true</code> if a complete image was received
+   */
+  private static boolean fetch(HttpClient client, ServerProcess server, String preview)
+      throws IOException, InterruptedException {
+    HttpRequest req = HttpRequest.newBuilder(server.uri(preview)).timeout(Duration.ofSeconds(60)).build();
+    for (int attempt = 0; attempt < 100; attempt++) {
+      HttpResponse<byte[]> rsp = client.send(req, HttpResponse.BodyHandlers.ofByteArray());
+      if (rsp.headers().firstValue("Retry-After").isPresent()) {
+        Thread.sleep(100);
+        continue;
+      }
+      if (rsp.statusCode() != 200 || ImageIO.read(new ByteArrayInputStream(rsp.body())) == null) {
+        System.out.printf("%s from server on port %d: status %d, %d bytes%n", preview, server.getPort(),
+            rsp.statusCode(), rsp.body().length);
+        return false;
+      }
+      return true;
+    }
+    System.out.printf("%s from server on port %d: no preview after 100 attempts%n", preview, server.getPort());
+    return false;
+  }
+
+  private static final class Result {
+    long generated;
+    int broken;
+  }
+}
@@ -0,0 +1,44 @@
+#!/bin/sh
+# Compares two images of the server: starts each a number of times, takes the
+# time from docker run until the shelf page answers with 200 and the resident
+# memory of the JVM right after that.
+#
+#   measure.sh <image> <image> [runs]
+set -e
+
+RUNS=${3:-5}
+
+now_ms() {
+  date +%s%3N
+}
+
+measure() {
+  image=$1
+  total_ms=0
+  total_kb=0
+  n=0
+  while [ $n -lt $RUNS ]; do
+    start=$(now_ms)
+    container=$(docker run -d -p 127.0.0.1::8080 "$image")
+    port=$(docker port "$container" 8080/tcp | head -n 1 | sed 's/.*://')
+    until [ "$(curl -s -o /dev/null -w '%{http_code}' "http://127.0.0.1:$port/books/shelf/")" = "200" ]; do
+      if [ $(( $(now_ms) - start )) -gt 120000 ]; then
+        echo "$image did not answer within 120 s" >&2
+        docker rm -f "$container" > /dev/null
+        exit 1
+      fi
+      sleep 0.05
+    done
+    ms=$(( $(now_ms) - start ))
+    kb=$(docker exec "$container" grep VmRSS /proc/1/status | awk '{print $2}')
+    docker rm -f "$container" > /dev/null
+    echo "$image run $((n + 1)): first request after $ms ms, rss $((kb / 1024)) MB"
+    total_ms=$((total_ms + ms))
+    total_kb=$((total_kb + kb))
+    n=$((n + 1))
+  done
+  echo "$image average: first request after $((total_ms / RUNS)) ms, rss $((total_kb / RUNS / 1024)) MB"
+}
+
+measure "$1"
+measure "$2"
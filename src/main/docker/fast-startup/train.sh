@@ -0,0 +1,29 @@
+#!/bin/sh
+# AppCDS training run: starts the server once with the image's class path,
+# requests the pages a client opens first and writes the classes loaded up to
+# the shutdown into bookserver.jsa.
+set -e
+
+java @bookserver.args -XX:ArchiveClassesAtExit=bookserver.jsa \
+  -Dspring.aot.enabled=true -Dspring.profiles.active=docker \
+  de.gerner.books.web.server.BooksServerApplication &
+PID=$!
+
+i=0
+until curl -sf -o /dev/null http://localhost:8080/actuator/health; do
+  i=$((i + 1))
+  if [ $i -gt 120 ]; then
+    echo "server did not start" >&2
+    kill $PID
+    exit 1
+  fi
+  sleep 1
+done
+
+for path in /books/shelf/ /books/api/shelf/ /books/opds/ /actuator/health; do
+  curl -s -o /dev/null -w "%{http_code} $path\n" "http://localhost:8080$path"
+done
+
+kill -TERM $PID
+wait $PID || true
+test -s bookserver.jsa
@@ -0,0 +1,458 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Catalog of the book metadata.
+ * <p>
+ * The metadata of every book is extracted once by a background thread and
+ * kept in memory, keyed by the path of the book and valid for its size and
+ * modification time. The catalog is persisted in an append-only file next
+ * to the preview cache which is replayed at startup and compacted when it
+ * holds too many outdated records.
+ *
+ * @author thomas
+ *
+ */
+@Service
+public class BookCatalog implements ShelfIndex.Listener
+{
+  private static final Logger LOG = LoggerFactory.getLogger(BookCatalog.class);
+
+  private static final int MAGIC = 0x42434154;
+  private static final int FORMAT = 1;
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+
+  /** the writeUTF limit is 64k bytes, metadata beyond this is junk anyway */
+  private static final int MAX_STRING = 4096;
+
+  @Value("${bookserver.catalog.file:${bookserver.preview.cache}/catalog.dat}")
+  private String catalogFile;
+
+  @Autowired
+  private ShelfIndex shelfIndex;
+
+  private final Map<String, BookMetadata> books = new ConcurrentHashMap<>();
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  private ExecutorService extractor;
+  private DataOutputStream journal;
+  private int records;
+
+  @PostConstruct
+  public void start() {
+    File f = new File(catalogFile);
+    long t0 = System.currentTimeMillis();
+    try {
+      load(f);
+    } catch (IOException e) {
+      LOG.warn("Failed reading book catalog {}, starting empty", f, e);
+      books.clear();
+      records = 0;
+      moveAside(f);
+    }
+    LOG.info("Loaded {} catalog records from {} in {} ms", books.size(), f, System.currentTimeMillis() - t0);
+
+    extractor = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "catalog");
+      t.setDaemon(true);
+      t.setPriority(Thread.MIN_PRIORITY);
+      return t;
+    });
+    shelfIndex.addListener(this);
+    extractor.execute(this::reconcile);
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    shelfIndex.removeListener(this);
+    extractor.shutdownNow();
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        LOG.debug("Failed closing book catalog", e);
+      }
+      journal = null;
+    }
+  }
+
+  /**
+   * @param path path of the book relative to the books root
+   * @param entry the current index entry of the book
+   * @return the metadata of this version of the book or <code>null</code>
+   *         if it is not yet known
+   */
+  public BookMetadata get(String path, ShelfIndex.Entry entry) {
+    BookMetadata md = books.get(path);
+    if (md == null || !md.matches(entry.getLength(), entry.getLastModified())) {
+      return null;
+    }
+    return md;
+  }
+
+  /**
+   * @return all catalogued books by path
+   */
+  public Map<String, BookMetadata> getAll() {
+    return Collections.unmodifiableMap(books);
+  }
+
+  /**
+   * Registers a listener for catalog changes. Books catalogued before are
+   * not reported, see {@link #getAll()}.
+   */
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  private void fireBookChanged(String path, BookMetadata md) {
+    for (Listener l : listeners) {
+      try {
+        l.bookChanged(path, md);
+      } catch (RuntimeException e) {
+        LOG.warn("Catalog listener {} failed", l, e);
+      }
+    }
+  }
+
+  /**
+   * @return number of books in the catalog
+   */
+  public int size() {
+    return books.size();
+  }
+
+  @Override
+  public void shelfChanged(ShelfIndex.Shelf old, ShelfIndex.Shelf current) {
+    String shelfPath = current != null ? current.getPath() : old.getPath();
+    if (old != null) {
+      for (ShelfIndex.Entry e : old.getEntries()) {
+        if (isBook(e) && (current == null || current.getEntry(e.getName()) == null)) {
+          String path = child(shelfPath, e.getName());
+          extractor.execute(() -> remove(path));
+        }
+      }
+    }
+    if (current != null) {
+      for (ShelfIndex.Entry e : current.getEntries()) {
+        if (isBook(e)) {
+          schedule(child(shelfPath, e.getName()), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Brings the catalog in line with the shelf index after startup.
+   */
+  private void reconcile() {
+    Set<String> seen = ConcurrentHashMap.newKeySet();
+    for (String shelfPath : shelfIndex.getShelfPaths()) {
+      ShelfIndex.Shelf shelf = shelfIndex.getShelf(shelfPath);
+      if (shelf == null) {
+        continue;
+      }
+      for (ShelfIndex.Entry e : shelf.getEntries()) {
+        if (isBook(e)) {
+          String path = child(shelfPath, e.getName());
+          seen.add(path);
+          schedule(path, e);
+        }
+      }
+    }
+    for (String path : new ArrayList<>(books.keySet())) {
+      if (!seen.contains(path) && shelfIndex.getEntry(path) == null) {
+        remove(path);
+      }
+    }
+  }
+
+  private void schedule(String path, ShelfIndex.Entry e) {
+    BookMetadata md = books.get(path);
+    if (md != null && md.matches(e.getLength(), e.getLastModified())) {
+      return;
+    }
+    if (pending.add(path)) {
+      extractor.execute(() -> {
+        pending.remove(path);
+        extract(path);
+      });
+    }
+  }
+
+  private void extract(String path) {
+    File f = new File(shelfIndex.getRoot().toFile(), path);
+    if (!f.isFile()) {
+      remove(path);
+      return;
+    }
+    BookMetadata md = null;
+    try {
+      md = MetadataExtractor.read(f);
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Failed reading metadata of {}", f, e);
+    }
+    if (md == null) {
+      // remember the book version anyway, it is not read again until it changes
+      md = new BookMetadata(f.length(), f.lastModified(), null, new ArrayList<String>(), null, null, null,
+          new ArrayList<String>());
+    }
+    books.put(path, md);
+    append(path, md);
+    fireBookChanged(path, md);
+  }
+
+  private void remove(String path) {
+    if (books.remove(path) != null) {
+      append(path, null);
+      fireBookChanged(path, null);
+    }
+  }
+
+  private synchronized void append(String path, BookMetadata md) {
+    try {
+      if (journal == null) {
+        File f = new File(catalogFile);
+        f.getParentFile().mkdirs();
+        boolean fresh = f.length() == 0;
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f, true)));
+        if (fresh) {
+          journal.writeInt(MAGIC);
+          journal.writeInt(FORMAT);
+        }
+      }
+      writeRecord(journal, path, md);
+      journal.flush();
+      records++;
+      if (records > 2 * books.size() + 1000) {
+        compact();
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed writing book catalog {}", catalogFile, e);
+    }
+  }
+
+  /**
+   * Rewrites the catalog with the live records only.
+   */
+  private synchronized void compact() throws IOException {
+    File f = new File(catalogFile);
+    File tmp = new File(f.getParentFile(), f.getName() + ".tmp");
+    int written = 0;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      for (Map.Entry<String, BookMetadata> me : books.entrySet()) {
+        writeRecord(out, me.getKey(), me.getValue());
+        written++;
+      }
+    }
+    if (journal != null) {
+      journal.close();
+      journal = null;
+    }
+    try {
+      Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    LOG.info("Compacted book catalog from {} to {} records", records, written);
+    records = written;
+  }
+
+  private void load(File f) throws IOException {
+    if (!f.isFile()) {
+      return;
+    }
+    byte[] data = Files.readAllBytes(f.toPath());
+    ByteArrayInputStream bin = new ByteArrayInputStream(data);
+    DataInputStream in = new DataInputStream(bin);
+    if (data.length < 8 || in.readInt() != MAGIC || in.readInt() != FORMAT) {
+      throw new IOException("Unknown catalog format");
+    }
+    long good = data.length - bin.available();
+    try {
+      while (bin.available() > 0) {
+        byte type = in.readByte();
+        String path = in.readUTF();
+        if (type == PUT) {
+          books.put(path, readMetadata(in));
+        } else if (type == REMOVE) {
+          books.remove(path);
+        } else {
+          throw new IOException("Unknown record type " + type);
+        }
+        records++;
+        good = data.length - bin.available();
+      }
+    } catch (EOFException e) {
+      LOG.warn("Truncated record at the end of book catalog {}, dropping it", f);
+      truncate(f, good);
+    } catch (IOException e) {
+      // records appended after garbage would be lost again on every start
+      LOG.warn("Corrupt record at offset {} of book catalog {}, dropping the rest", good, f, e);
+      truncate(f, good);
+    }
+  }
+
+  private static void truncate(File f, long length) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+      raf.setLength(length);
+    }
+  }
+
+  /**
+   * Keeps an unreadable catalog for inspection, the next record starts a new
+   * one.
+   */
+  private static void moveAside(File f) {
+    if (!f.exists()) {
+      return;
+    }
+    File corrupt = new File(f.getParentFile(), f.getName() + ".corrupt");
+    try {
+      Files.move(f.toPath(), corrupt.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      LOG.warn("Moved unreadable book catalog to {}", corrupt);
+    } catch (IOException e) {
+      LOG.warn("Failed moving unreadable book catalog {} aside, deleting it", f, e);
+      f.delete();
+    }
+  }
+
+  private static void writeRecord(DataOutputStream out, String path, BookMetadata md) throws IOException {
+    out.writeByte(md == null ? REMOVE : PUT);
+    out.writeUTF(path);
+    if (md == null) {
+      return;
+    }
+    out.writeLong(md.getSize());
+    out.writeLong(md.getLastModified());
+    writeString(out, md.getTitle());
+    writeString(out, md.getLanguage());
+    writeString(out, md.getSeries());
+    writeString(out, md.getSeriesIndex());
+    writeList(out, md.getAuthors());
+    writeList(out, md.getIdentifiers());
+  }
+
+  private static BookMetadata readMetadata(DataInputStream in) throws IOException {
+    long size = in.readLong();
+    long lastModified = in.readLong();
+    String title = readString(in);
+    String language = readString(in);
+    String series = readString(in);
+    String seriesIndex = readString(in);
+    List<String> authors = readList(in);
+    List<String> identifiers = readList(in);
+    return new BookMetadata(size, lastModified, title, authors, language, series, seriesIndex, identifiers);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s.length() > MAX_STRING ? s.substring(0, MAX_STRING) : s);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeList(DataOutputStream out, List<String> l) throws IOException {
+    int n = Math.min(l.size(), 255);
+    out.writeByte(n);
+    for (int i = 0; i < n; i++) {
+      writeString(out, l.get(i));
+    }
+  }
+
+  private static List<String> readList(DataInputStream in) throws IOException {
+    int n = in.readUnsignedByte();
+    List<String> l = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      l.add(readString(in));
+    }
+    return l;
+  }
+
+  /**
+   * Receives the changes of the catalog on the catalog thread.
+   */
+  public interface Listener {
+
+    /**
+     * @param path path of the book relative to the books root
+     * @param md the new record, <code>null</code> if the book was removed
+     */
+    void bookChanged(String path, BookMetadata md);
+  }
+
+  private static boolean isBook(ShelfIndex.Entry e) {
+    return !e.isDirectory() && e.getName().endsWith(".epub");
+  }
+
+  private static String child(String path, String name) {
+    return path.isEmpty() ? name : path + "/" + name;
+  }
+}
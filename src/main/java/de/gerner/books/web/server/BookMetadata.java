@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Catalog record of a book version, identified by size and modification
+ * time of the file.
+ *
+ * @author thomas
+ *
+ */
+public class BookMetadata
+{
+  private final long size;
+  private final long lastModified;
+  private final String title;
+  private final List<String> authors;
+  private final String language;
+  private final String series;
+  private final String seriesIndex;
+  private final List<String> identifiers;
+
+  public BookMetadata(long size, long lastModified, String title, List<String> authors, String language,
+      String series, String seriesIndex, List<String> identifiers) {
+    this.size = size;
+    this.lastModified = lastModified;
+    this.title = title;
+    this.authors = Collections.unmodifiableList(authors);
+    this.language = language;
+    this.series = series;
+    this.seriesIndex = seriesIndex;
+    this.identifiers = Collections.unmodifiableList(identifiers);
+  }
+
+  /**
+   * @return <code>true</code> if the record describes that version of the file
+   */
+  public boolean matches(long size, long lastModified) {
+    return this.size == size && this.lastModified == lastModified;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public List<String> getAuthors() {
+    return authors;
+  }
+
+  public String getLanguage() {
+    return language;
+  }
+
+  public String getSeries() {
+    return series;
+  }
+
+  public String getSeriesIndex() {
+    return seriesIndex;
+  }
+
+  public List<String> getIdentifiers() {
+    return identifiers;
+  }
+}
@@ -30,21 +30,32 @@
 package de.gerner.books.web.server;
 
 import java.io.File;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 
 import jakarta.servlet.http.HttpServletRequest;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.ui.ExtendedModelMap;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.spring6.SpringTemplateEngine;
 
 /**
  * @author thomas
@@ -55,15 +66,43 @@ import org.springframework.web.bind.annotation.RequestParam;
 public class BooksController
 {
   private static final Logger LOG = LoggerFactory.getLogger(BooksController.class);
+
+  private static final MediaType HTML = new MediaType(MediaType.TEXT_HTML, StandardCharsets.UTF_8);
   
-  private static final int NUM_ROWS = 2;
-  private static final int NUM_COLS = 4;
+  static final int NUM_ROWS = 2;
+  static final int NUM_COLS = 4;
   
-  @Value("${bookserver.ebooks.root}")
-  private String booksRoot;
+  @Autowired
+  private ShelfIndex shelfIndex;
+
+  @Autowired
+  private BookCatalog bookCatalog;
+
+  @Autowired
+  private ShelfPageCache pageCache;
+
+  @Autowired
+  private SpriteSheets spriteSheets;
 
+  @Autowired
+  private SpringTemplateEngine templateEngine;
+
+  @Autowired
+  private BooksMetrics metrics;
+
+  /** preview heights, the smallest is the one shown */
+  @Value("${bookserver.preview.heights:160,320,640}")
+  private int[] previewHeights;
+
+  /**
+   * Serves the page from the {@link ShelfPageCache} if the shelf did not
+   * change since it was rendered. Clients revalidate every time and get a
+   * 304 for an unchanged page.
+   */
   @GetMapping(path="/**")
-  public String controlPage(HttpServletRequest req, @RequestParam(required=false) String page, Model model) {
+  @ResponseBody
+  public ResponseEntity<byte[]> controlPage(HttpServletRequest req, @RequestParam(required=false) String page,
+      WebRequest webRequest) {
     
     String bookPath = req.getServletPath();
     if (bookPath.length() > 13) {
@@ -71,13 +110,60 @@ public class BooksController
     } else {
       bookPath = "";
     }
-    fillModel(bookPath, page, model);
-    return "books";
+    int rqPage = parsePage(page);
+
+    ShelfIndex.Shelf shelf = shelfIndex.getShelf(bookPath);
+    String key = bookPath + "?" + rqPage;
+    ShelfPageCache.Page cached = shelf == null ? null : pageCache.get(key, shelf);
+    if (cached == null) {
+      metrics.shelfPageRendered();
+      long generation = pageCache.getGeneration();
+      byte[] html = render(bookPath, rqPage);
+      if (shelf == null) {
+        return ResponseEntity.ok().contentType(HTML).body(html);
+      }
+      cached = pageCache.put(key, shelf, html, generation);
+    } else {
+      metrics.shelfPageCached();
+    }
+    if (webRequest.checkNotModified(cached.getETag())) {
+      return null;
+    }
+    return ResponseEntity.ok()
+        .contentType(HTML)
+        .cacheControl(CacheControl.noCache())
+        .eTag(cached.getETag())
+        .body(cached.getHtml());
+  }
+
+  private byte[] render(String bookPath, int rqPage) {
+    long t0 = System.nanoTime();
+    ExtendedModelMap model = new ExtendedModelMap();
+    fillModel(bookPath, rqPage, model);
+    long t1 = System.nanoTime();
+    Context ctx = new Context();
+    ctx.setVariables(model);
+    byte[] html = templateEngine.process("books", ctx).getBytes(StandardCharsets.UTF_8);
+    metrics.shelfModelBuilt(t1 - t0);
+    metrics.shelfRendered(System.nanoTime() - t1);
+    return html;
+  }
+
+  /**
+   * @return the zero based page of the 1 based page parameter
+   */
+  static int parsePage(String page) {
+    if (page != null && !page.isEmpty()) {
+      try {
+        return Math.max(0, Integer.parseInt(page) - 1);
+      } catch (NumberFormatException e) {
+        LOG.warn("Failed parsing page parameter", e);
+      }
+    }
+    return 0;
   }
   
-  private void fillModel(String bookPath, String page, Model model) {
-    File root = new File(booksRoot);
-    File f = new File(root, bookPath);
+  void fillModel(String bookPath, int rqPage, Model model) {
     
     boolean isSubShelf = !(bookPath.isEmpty() || bookPath.equals("/"));
     model.addAttribute("isSubShelf", isSubShelf);
@@ -87,18 +173,15 @@ public class BooksController
       model.addAttribute("parentShelf", "/books/shelf/" + (parent == null ? "" : parent));
     }
     
-    int rqPage = 0;
-    if (page != null && !page.isEmpty()) {
-      try {
-        rqPage = Integer.parseInt(page) - 1;
-      } catch (Exception e) {
-        LOG.warn("Failed parsing page parameter", e);
-      }
-    }
-    
-    if (f.isDirectory()) {
-      ArrayList<File> childrenList = getSortedObjectList(f.listFiles());
+    ShelfIndex.Shelf shelf = shelfIndex.getShelf(bookPath);
+    if (shelf != null) {
+      List<ShelfIndex.Entry> childrenList = shelf.getEntries();
       int start = rqPage * NUM_COLS * NUM_ROWS;
+
+      // folders are sorted first, the shelf has books if the last entry is one
+      if (!childrenList.isEmpty() && !childrenList.get(childrenList.size() - 1).isDirectory()) {
+        model.addAttribute("bundleHref", "/books/bundle/" + shelf.getPath());
+      }
       
       boolean hasPrevPage = rqPage > 0;
       model.addAttribute("hasPrevPage", hasPrevPage);
@@ -112,68 +195,59 @@ public class BooksController
       }
 
       List<BookCol> bookRows = new ArrayList<>();
+      List<ShelfIndex.Entry> sprited = new ArrayList<>();
+      List<Book> spritedBooks = new ArrayList<>();
       int index = start;
       for (int row = 0; row < NUM_ROWS && index < childrenList.size(); row++) {
         BookCol bookCol = new BookCol();
         for (int col = 0; col < NUM_COLS && index < childrenList.size(); col++) {
-          Book b = new Book(bookPath, childrenList.get(index++));
+          ShelfIndex.Entry entry = childrenList.get(index++);
+          BookMetadata md = null;
+          if (!entry.isDirectory()) {
+            String shelfPath = shelf.getPath();
+            md = bookCatalog.get(shelfPath.isEmpty() ? entry.getName() : shelfPath + "/" + entry.getName(), entry);
+          }
+          Book b = new Book(bookPath, entry, md, previewHeights);
           bookCol.getCols().add(b);
+          if (entry.getName().endsWith(".epub")) {
+            sprited.add(entry);
+            spritedBooks.add(b);
+          }
         }
         bookRows.add(bookCol);
       }
+      SpriteSheets.Sheet sheet = spriteSheets.getSheet(shelf.getPath(), rqPage, sprited);
+      if (sheet != null) {
+        for (int i = 0; i < spritedBooks.size(); i++) {
+          spritedBooks.get(i).setSpriteStyle(sheet.getStyle(i));
+        }
+      }
       model.addAttribute("rows", bookRows);
     }
 
   }
   
-  /**
-   * @param children
-   * @return
-   */
-  private ArrayList<File> getSortedObjectList(File[] children)
-  {
-    ArrayList<File> objList = new ArrayList<File>();
-    if (children == null) {
-      return objList;
-    }
-    for (File child : children) {
-      objList.add(child);
-    }
-    // sort by folder/modified time
-    Collections.sort(objList, new Comparator<File>() {
-
-      @Override
-      public int compare(File f1, File f2) {
-        if (f1.isDirectory()) {
-          if (f2.isDirectory()) {
-            // latest modified first
-            return (int) ((f2.lastModified() - f1.lastModified()) / 1000);
-          } 
-          return -1;
-        } else {
-          if (f2.isDirectory()) {
-            return 1;
-          }
-          // latest modified first
-          return (int) ((f2.lastModified() - f1.lastModified()) / 1000);
-        }
-      }
-    });
-    return objList;
-  }
-  
   public static class Book {
     
     private String base;
-    private File f;
+    private ShelfIndex.Entry f;
+    private BookMetadata md;
+    private int[] previewHeights;
+    private String spriteStyle;
+    
+    public Book(String base, ShelfIndex.Entry f, BookMetadata md) {
+      this(base, f, md, null);
+    }
     
-    public Book(String base, File f) {
+    public Book(String base, ShelfIndex.Entry f, BookMetadata md, int[] previewHeights) {
       if (base == null || base.isEmpty()) {
         this.base = "";
       } else {
         this.base = base + "/";
       }
       this.f = f;
+      this.md = md;
+      this.previewHeights = previewHeights;
     }
     
     public String getBookHref() {
@@ -190,11 +264,46 @@ public class BooksController
       }
       String name = f.getName();
       if (name.endsWith(".epub")) {
-        return "/books/image/" + base + name.substring(0, name.length() - 4) + "png";
+        return "/books/image/" + base + name.substring(0, name.length() - 5);
       }
       return "/books/NoPreview.png";
     }
     
+    /**
+     * @return the previews in all heights as pixel densities of the smallest
+     */
+    public String getBookImageSrcset() {
+      if (f.isDirectory() || previewHeights == null || previewHeights.length < 2 || !f.getName().endsWith(".epub")) {
+        return null;
+      }
+      int[] heights = previewHeights.clone();
+      Arrays.sort(heights);
+      String image = getBookImage();
+      StringBuilder sb = new StringBuilder();
+      for (int h : heights) {
+        if (sb.length() > 0) {
+          sb.append(", ").append(image).append("?h=").append(h);
+        } else {
+          sb.append(image);
+        }
+        sb.append(' ').append(BigDecimal.valueOf(h).divide(BigDecimal.valueOf(heights[0]), 2, RoundingMode.HALF_UP)
+            .stripTrailingZeros().toPlainString()).append('x');
+      }
+      return sb.toString();
+    }
+    
+    /**
+     * @return the CSS showing the cover from the sprite sheet of the page,
+     *         <code>null</code> if the single image is to be shown
+     */
+    public String getSpriteStyle() {
+      return spriteStyle;
+    }
+    
+    public void setSpriteStyle(String spriteStyle) {
+      this.spriteStyle = spriteStyle;
+    }
+    
     public String getAltText() {
       if (f.isDirectory()) {
         return "Folder";
@@ -203,6 +312,9 @@ public class BooksController
     }
     
     public String getBookText() {
+      if (md != null && md.getTitle() != null) {
+        return md.getTitle();
+      }
       StringBuffer sb = new StringBuffer(f.getName());
       int ext = sb.lastIndexOf(".");
       if (ext != -1) {
@@ -216,6 +328,13 @@ public class BooksController
       }
       return sb.toString();
     }
+    
+    public String getBookAuthor() {
+      if (md == null || md.getAuthors().isEmpty()) {
+        return null;
+      }
+      return String.join(", ", md.getAuthors());
+    }
   }
   
   public static class BookCol {
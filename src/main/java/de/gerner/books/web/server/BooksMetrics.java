@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * The application's own meters. They are all registered up front so the
+ * request paths only record into existing meters and never look one up.
+ * Histograms are switched on by the
+ * <code>management.metrics.distribution.*</code> properties.
+ *
+ * @author thomas
+ *
+ */
+@Component
+public class BooksMetrics
+{
+  private final Timer shelfList;
+  private final Timer shelfSort;
+  private final Timer shelfModel;
+  private final Timer shelfRender;
+  private final Counter shelfPageCached;
+  private final Counter shelfPageRendered;
+
+  private final Timer searchModel;
+  private final Timer searchRender;
+
+  private final Counter previewMemory;
+  private final Counter previewDisk;
+  private final Counter previewGenerated;
+  private final Counter previewUnavailable;
+  private final Counter previewBusy;
+  private final Timer previewGenerate;
+  private final Timer previewParse;
+  private final Timer previewScale;
+  private final Counter previewLeaseAcquired;
+  private final Counter previewLeaseWaited;
+  private final Counter previewLeaseExpired;
+
+  private final Timer spriteCompose;
+
+  private final Counter downloadBytes;
+  private final Counter downloadRejected;
+  private final AtomicInteger downloadsActive = new AtomicInteger();
+
+  public BooksMetrics(MeterRegistry registry) {
+    shelfList = shelfTimer(registry, "bookserver.shelf.scan", "list");
+    shelfSort = shelfTimer(registry, "bookserver.shelf.scan", "sort");
+    shelfModel = shelfTimer(registry, "bookserver.shelf.request", "model");
+    shelfRender = shelfTimer(registry, "bookserver.shelf.request", "render");
+    shelfPageCached = shelfPageCounter(registry, "cached");
+    shelfPageRendered = shelfPageCounter(registry, "rendered");
+    searchModel = shelfTimer(registry, "bookserver.search.request", "model");
+    searchRender = shelfTimer(registry, "bookserver.search.request", "render");
+
+    previewMemory = previewCounter(registry, "memory");
+    previewDisk = previewCounter(registry, "disk");
+    previewGenerated = previewCounter(registry, "generated");
+    previewUnavailable = previewCounter(registry, "unavailable");
+    previewBusy = previewCounter(registry, "busy");
+    previewGenerate = previewTimer(registry, "generate");
+    previewParse = previewTimer(registry, "parse");
+    previewScale = previewTimer(registry, "scale");
+    previewLeaseAcquired = leaseCounter(registry, "acquired");
+    previewLeaseWaited = leaseCounter(registry, "waited");
+    previewLeaseExpired = leaseCounter(registry, "expired");
+
+    spriteCompose = Timer.builder("bookserver.sprite.generation")
+        .description("Composing the sprite sheet of a shelf page")
+        .register(registry);
+
+    downloadBytes = Counter.builder("bookserver.download.bytes")
+        .description("Bytes of books sent")
+        .baseUnit("bytes")
+        .register(registry);
+    downloadRejected = Counter.builder("bookserver.download.rejected")
+        .description("Downloads turned away by the concurrency limits")
+        .register(registry);
+    Gauge.builder("bookserver.download.active", downloadsActive, AtomicInteger::get)
+        .description("Downloads currently being sent")
+        .register(registry);
+  }
+
+  private static Timer shelfTimer(MeterRegistry registry, String name, String phase) {
+    return Timer.builder(name).tag("phase", phase).register(registry);
+  }
+
+  private static Counter shelfPageCounter(MeterRegistry registry, String source) {
+    return Counter.builder("bookserver.shelf.pages")
+        .description("Shelf pages served from the page cache or rendered")
+        .tag("source", source)
+        .register(registry);
+  }
+
+  private static Counter previewCounter(MeterRegistry registry, String source) {
+    return Counter.builder("bookserver.preview.requests")
+        .description("Preview requests by where the answer came from")
+        .tag("source", source)
+        .register(registry);
+  }
+
+  private static Timer previewTimer(MeterRegistry registry, String step) {
+    return Timer.builder("bookserver.preview.generation").tag("step", step).register(registry);
+  }
+
+  private static Counter leaseCounter(MeterRegistry registry, String outcome) {
+    return Counter.builder("bookserver.preview.leases")
+        .description("Generation leases of a shared preview cache taken, waited for or broken after expiry")
+        .tag("outcome", outcome)
+        .register(registry);
+  }
+
+  /**
+   * Listing and sorting of one shelf folder by the shelf index.
+   */
+  public void shelfScanned(long listNanos, long sortNanos) {
+    shelfList.record(listNanos, TimeUnit.NANOSECONDS);
+    shelfSort.record(sortNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Building the model of a shelf page from the index.
+   */
+  public void shelfModelBuilt(long nanos) {
+    shelfModel.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Rendering the template of a shelf page.
+   */
+  public void shelfRendered(long nanos) {
+    shelfRender.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Searching the index for a result page.
+   */
+  public void searchModelBuilt(long nanos) {
+    searchModel.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Rendering the template of a search result page.
+   */
+  public void searchRendered(long nanos) {
+    searchRender.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void shelfPageCached() {
+    shelfPageCached.increment();
+  }
+
+  public void shelfPageRendered() {
+    shelfPageRendered.increment();
+  }
+
+  public void previewFromMemory() {
+    previewMemory.increment();
+  }
+
+  public void previewFromDisk() {
+    previewDisk.increment();
+  }
+
+  public void previewGenerated() {
+    previewGenerated.increment();
+  }
+
+  public void previewUnavailable() {
+    previewUnavailable.increment();
+  }
+
+  public void previewBusy() {
+    previewBusy.increment();
+  }
+
+  /**
+   * Timings of one preview generation, parsing the book and decoding the
+   * cover, scaling it and the whole job including writing the file.
+   */
+  public void previewCreated(long parseNanos, long scaleNanos, long totalNanos) {
+    previewParse.record(parseNanos, TimeUnit.NANOSECONDS);
+    previewScale.record(scaleNanos, TimeUnit.NANOSECONDS);
+    previewGenerate.record(totalNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void previewLeaseAcquired() {
+    previewLeaseAcquired.increment();
+  }
+
+  /**
+   * A preview another process held the lease of, whether it was then taken
+   * from that process or not.
+   */
+  public void previewLeaseWaited() {
+    previewLeaseWaited.increment();
+  }
+
+  public void previewLeaseExpired() {
+    previewLeaseExpired.increment();
+  }
+
+  /**
+   * Composing one sprite sheet including generating missing previews.
+   */
+  public void spriteComposed(long nanos) {
+    spriteCompose.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void downloadStarted() {
+    downloadsActive.incrementAndGet();
+  }
+
+  public void downloadFinished(long bytes) {
+    downloadsActive.decrementAndGet();
+    downloadBytes.increment(bytes);
+  }
+
+  public void downloadRejected() {
+    downloadRejected.increment();
+  }
+}
@@ -29,22 +29,42 @@
  */
 package de.gerner.books.web.server;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.embedded.jetty.JettyServletWebServerFactory;
 import org.springframework.boot.web.server.MimeMappings;
 import org.springframework.boot.web.server.WebServerFactoryCustomizer;
 import org.springframework.boot.web.servlet.server.ConfigurableServletWebServerFactory;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 /**
  * @author thomas
  *
  */
 @SpringBootApplication
+@EnableScheduling
 public class BooksServerApplication {
 
+	private static final Logger LOG = LoggerFactory.getLogger(BooksServerApplication.class);
+
+	/**
+	 * @param virtualThreads run the request handling of Jetty's thread pool on
+	 *          virtual threads, selectors and acceptors stay platform threads
+	 */
 	@Bean
-	public WebServerFactoryCustomizer<ConfigurableServletWebServerFactory> jettyCustomizer() {
+	public WebServerFactoryCustomizer<ConfigurableServletWebServerFactory> jettyCustomizer(
+			@Value("${bookserver.jetty.virtual-threads:false}") boolean virtualThreads) {
 		return new WebServerFactoryCustomizer<ConfigurableServletWebServerFactory>() {
 
 			@Override
@@ -53,10 +73,53 @@ public class BooksServerApplication {
 				MimeMappings mm = new MimeMappings(MimeMappings.DEFAULT);
 				mm.add("epub", "application/epub+zip");
 				factory.setMimeMappings(mm);
+
+				if (virtualThreads && factory instanceof JettyServletWebServerFactory) {
+					((JettyServletWebServerFactory) factory).addServerCustomizers(server -> {
+						if (!VirtualThreads.areSupported()) {
+							LOG.warn("Virtual threads are not supported by this JVM, using platform threads");
+						} else if (server.getThreadPool() instanceof QueuedThreadPool) {
+							((QueuedThreadPool) server.getThreadPool())
+									.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+							LOG.info("Handling requests on virtual threads");
+						}
+					});
+				}
 			}
 		};
 	}
 
+	/**
+	 * @param store <code>tree</code> or <code>cas</code>, chosen when the
+	 *          context starts rather than by a condition so builds processed
+	 *          ahead of time can switch it as well; the stores are wired here
+	 *          since the injection of ahead of time processed contexts only
+	 *          knows the declared type
+	 * @param shared <code>true</code> if other servers use the cache as well,
+	 *          which the cas store does not support as it keeps its index in
+	 *          memory
+	 */
+	@Bean
+	public PreviewStore previewStore(@Value("${bookserver.preview.store:tree}") String store,
+			@Value("${bookserver.preview.cache}") String imgRoot,
+			@Value("${bookserver.preview.heights:160,320,640}") int[] heights,
+			@Value("${bookserver.preview.cas.segment-size:67108864}") long segmentSize,
+			@Value("${bookserver.preview.cas.garbage-ratio:0.5}") double garbageRatio,
+			@Value("${bookserver.preview.cas.compact-interval:3600000}") long compactInterval,
+			@Value("${bookserver.preview.shared:false}") boolean shared,
+			ShelfIndex shelfIndex, MeterRegistry registry) throws IOException {
+		if ("cas".equals(store)) {
+			if (shared) {
+				throw new IllegalStateException("The cas preview store cannot be shared by several servers");
+			}
+			CasPreviewStore cas = new CasPreviewStore(new File(imgRoot), heights, segmentSize, garbageRatio,
+					compactInterval, shelfIndex);
+			cas.start(registry);
+			return cas;
+		}
+		return new TreePreviewStore(new File(imgRoot), heights);
+	}
+
 	/**
 	 * @param args
 	 */
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Serves all books of a shelf, or the ones selected by <code>book</code>
+ * parameters, as one ZIP archive. The archive is generated while it is sent,
+ * with its length known in advance. Bundles pass the same limits and pacing
+ * as single downloads.
+ *
+ * @author thomas
+ *
+ */
+@Controller
+@RequestMapping(value="/books/bundle")
+public class BundleController
+{
+  private static final Logger LOG = LoggerFactory.getLogger(BundleController.class);
+
+  @Value("${bookserver.ebooks.root}")
+  private String booksRoot;
+
+  @Autowired
+  private ShelfIndex shelfIndex;
+
+  @Autowired
+  private DownloadScheduler downloadScheduler;
+
+  /** books whose CRC is kept for later bundles */
+  @Value("${bookserver.bundle.crc-cache.size:4096}")
+  private int crcCacheSize;
+
+  private ZipBundle.CrcCache crcs;
+
+  @PostConstruct
+  public void start() {
+    crcs = new ZipBundle.CrcCache(crcCacheSize);
+  }
+
+  @GetMapping(path="/**")
+  public void downloadBundle(HttpServletRequest req, HttpServletResponse rsp,
+      @RequestParam(required=false) List<String> book) throws IOException {
+
+    String shelfPath = ShelfIndex.normalize(req.getServletPath().substring(13));
+    ShelfIndex.Shelf shelf = shelfPath == null ? null : shelfIndex.getShelf(shelfPath);
+    if (shelf == null) {
+      rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    Set<String> selected = book == null ? null : new HashSet<>(book);
+    File dir = new File(new File(booksRoot), shelfPath);
+    ZipBundle bundle = new ZipBundle(crcs);
+    for (ShelfIndex.Entry e : shelf.getEntries()) {
+      if (!e.isDirectory() && (selected == null || selected.contains(e.getName()))) {
+        bundle.add(e.getName(), new File(dir, e.getName()), e.getLength(), e.getLastModified());
+      }
+    }
+    if (bundle.size() == 0) {
+      rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    if (bundle.needsZip64()) {
+      rsp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Too large for a ZIP bundle");
+      return;
+    }
+
+    String name = shelfPath.isEmpty() ? "books" : new File(shelfPath).getName();
+    rsp.setContentType("application/zip");
+    rsp.setHeader("Content-disposition", "attachment; filename=\"" + name + ".zip\"");
+    rsp.setHeader(HttpHeaders.ACCEPT_RANGES, "none");
+    rsp.setContentLengthLong(bundle.getLength());
+    if ("HEAD".equals(req.getMethod())) {
+      return;
+    }
+
+    ReadableByteChannel source = bundle.open();
+    if (downloadScheduler.isPaced()) {
+      downloadScheduler.send(req, source, bundle.getLength());
+      return;
+    }
+    try {
+      ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+      OutputStream out = rsp.getOutputStream();
+      while (source.read(buf) >= 0) {
+        out.write(buf.array(), 0, buf.position());
+        buf.clear();
+      }
+    } catch (IOException e) {
+      LOG.debug("Bundle {} aborted", shelfPath, e);
+      throw e;
+    } finally {
+      source.close();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * Resource backed by a heap or direct {@link ByteBuffer}.
+ *
+ * @author thomas
+ *
+ */
+public class ByteBufferResource extends AbstractResource
+{
+  private final ByteBuffer buffer;
+  private final String description;
+
+  public ByteBufferResource(ByteBuffer buffer, String description) {
+    this.buffer = buffer.asReadOnlyBuffer();
+    this.description = description;
+  }
+
+  /**
+   * @return an independent view of the content
+   */
+  public ByteBuffer getByteBuffer() {
+    return buffer.duplicate();
+  }
+
+  @Override
+  public long contentLength() {
+    return buffer.remaining();
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    final ByteBuffer b = buffer.duplicate();
+    return new InputStream() {
+
+      @Override
+      public int read() {
+        return b.hasRemaining() ? b.get() & 0xff : -1;
+      }
+
+      @Override
+      public int read(byte[] dst, int off, int len) {
+        if (!b.hasRemaining()) {
+          return -1;
+        }
+        int n = Math.min(len, b.remaining());
+        b.get(dst, off, n);
+        return n;
+      }
+
+      @Override
+      public int available() {
+        return b.remaining();
+      }
+    };
+  }
+
+  @Override
+  public String getDescription() {
+    return "ByteBuffer resource [" + description + "]";
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o == this;
+  }
+
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(this);
+  }
+}
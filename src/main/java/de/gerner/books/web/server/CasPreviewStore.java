@@ -0,0 +1,688 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Content addressed preview store. The previews of a cover are stored once,
+ * keyed by the digest of the cover, no matter how many books share it. They
+ * are appended as one record to segment files in <code>cas/</code> below the
+ * cache folder and read through memory mappings of the segments. An append
+ * only index maps the books to their covers; it is replayed on startup, the
+ * segments are scanned for their records.
+ * <p>
+ * Segment record: cover digest, number of variants, per variant its key and
+ * length, then the images. Index record: book name, cover digest (empty for
+ * a failed book) and the time the book was linked. Truncated records at the
+ * end of a file are cut off on startup, so is the index from a corrupt record
+ * on.
+ * <p>
+ * Compaction drops the books no longer in the library, copies the covers
+ * still linked to new segments once the share of unlinked ones exceeds
+ * <code>garbage-ratio</code> and rewrites the index as a snapshot. It closes
+ * the segments it copied from, so previews are read under the lock of the
+ * store.
+ *
+ * @author thomas
+ *
+ */
+public class CasPreviewStore implements PreviewStore
+{
+  private static final Logger LOG = LoggerFactory.getLogger(CasPreviewStore.class);
+
+  private static final String INDEX = "index.log";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".dat";
+
+  /** cover digest of a book no preview could be made of */
+  private static final String FAILED = "";
+
+  private final File dir;
+
+  private final int[] heights;
+
+  /** size after which a new segment is started, at most 2 GiB */
+  private final long segmentSize;
+
+  private final double garbageRatio;
+
+  private final long compactInterval;
+
+  private final ShelfIndex shelfIndex;
+
+  /** cover of each book */
+  private final HashMap<String, Link> links = new HashMap<>();
+
+  private final HashMap<String, Cover> covers = new HashMap<>();
+
+  /** the last one is appended to */
+  private final List<Segment> segments = new ArrayList<>();
+
+  /** held by a compaction, which copies the covers without the store lock */
+  private final Object compactLock = new Object();
+
+  private int nextSegment;
+
+  private FileChannel index;
+
+  private int indexRecords;
+
+  private long compactions;
+
+  private ScheduledExecutorService compactionExecutor;
+
+  /**
+   * @param imgRoot the preview cache folder, the store lives in its
+   *          <code>cas</code> sub folder
+   * @param heights the preview heights
+   * @param compactInterval milliseconds between compactions
+   * @param shelfIndex tells which books are still in the library
+   */
+  public CasPreviewStore(File imgRoot, int[] heights, long segmentSize, double garbageRatio, long compactInterval,
+      ShelfIndex shelfIndex) {
+    this.dir = new File(imgRoot, "cas");
+    this.heights = heights.clone();
+    Arrays.sort(this.heights);
+    this.segmentSize = Math.min(segmentSize, Integer.MAX_VALUE);
+    this.garbageRatio = garbageRatio;
+    this.compactInterval = compactInterval;
+    this.shelfIndex = shelfIndex;
+  }
+
+  /**
+   * Loads the segments and the index and schedules the compaction.
+   */
+  public synchronized void start(MeterRegistry registry) throws IOException {
+    long t0 = System.currentTimeMillis();
+    dir.mkdirs();
+    File[] files = dir.listFiles((d, n) -> n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX));
+    Arrays.sort(files);
+    for (File f : files) {
+      String n = f.getName();
+      int id = Integer.parseInt(n.substring(SEGMENT_PREFIX.length(), n.length() - SEGMENT_SUFFIX.length()));
+      Segment s = new Segment(f);
+      scan(s);
+      segments.add(s);
+      nextSegment = id + 1;
+    }
+    replayIndex();
+    registerMeters(registry);
+    LOG.info("Loaded {} previews of {} covers from {} in {} ms", links.size(), covers.size(), dir,
+        System.currentTimeMillis() - t0);
+    if (compactInterval > 0) {
+      compactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "preview-compaction");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      });
+      compactionExecutor.scheduleWithFixedDelay(this::scheduledCompaction, compactInterval, compactInterval,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (compactionExecutor != null) {
+      compactionExecutor.shutdownNow();
+    }
+    try {
+      index.close();
+      for (Segment s : segments) {
+        s.channel.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed closing preview store", e);
+    }
+  }
+
+  @Override
+  public synchronized boolean isUpToDate(String name, long bookLastModified) {
+    Link l = links.get(name);
+    return l != null && l.time >= bookLastModified && hasVariants(l.cover);
+  }
+
+  @Override
+  public synchronized boolean hasFailed(String name, long bookLastModified) {
+    Link l = links.get(name);
+    return l != null && l.cover.equals(FAILED) && l.time >= bookLastModified;
+  }
+
+  @Override
+  public synchronized void markFailed(String name) throws IOException {
+    link(name, FAILED, System.currentTimeMillis());
+  }
+
+  @Override
+  public synchronized boolean link(String name, String coverHash) throws IOException {
+    if (!hasVariants(coverHash)) {
+      return false;
+    }
+    link(name, coverHash, System.currentTimeMillis());
+    return true;
+  }
+
+  @Override
+  public synchronized void put(String name, String coverHash, Map<String, byte[]> variants) throws IOException {
+    if (!hasVariants(coverHash)) {
+      covers.put(coverHash, append(segments, coverHash, variants));
+    }
+    link(name, coverHash, System.currentTimeMillis());
+  }
+
+  @Override
+  public synchronized byte[] read(String name, long bookLastModified, int height, String format) throws IOException {
+    Link l = links.get(name);
+    if (l == null || l.time < bookLastModified) {
+      return null;
+    }
+    Cover c = covers.get(l.cover);
+    if (c == null) {
+      return null;
+    }
+    int i = c.indexOf(PreviewStore.variantKey(height, format));
+    return i == -1 ? null : c.segment.read(c.offsets[i], c.lengths[i]);
+  }
+
+  private void scheduledCompaction() {
+    try {
+      compact(false);
+    } catch (IOException e) {
+      LOG.warn("Failed compacting preview store {}", dir, e);
+    }
+  }
+
+  /**
+   * Drops books no longer in the library and rewrites the index. Copies the
+   * linked covers to new segments if <code>force</code> is set or the unlinked
+   * ones take more than the garbage ratio of the segments. The covers are
+   * copied without holding the lock of the store, so previews are served and
+   * stored meanwhile; the new segments replace the old ones at the end.
+   */
+  public void compact(boolean force) throws IOException {
+    synchronized (compactLock) {
+      long t0 = System.currentTimeMillis();
+      int dropped = 0;
+      long total = 0;
+      Set<Segment> old;
+      HashMap<String, Cover> snapshot = new HashMap<>();
+      synchronized (this) {
+        // the shelf index may not have seen the library yet
+        if (shelfIndex.getShelf("") != null) {
+          for (Iterator<String> it = links.keySet().iterator(); it.hasNext();) {
+            if (shelfIndex.getEntry(it.next() + ".epub") == null) {
+              it.remove();
+              dropped++;
+            }
+          }
+        }
+        Set<String> linked = linkedCovers();
+        for (Segment s : segments) {
+          total += s.size;
+        }
+        long live = 0;
+        for (Map.Entry<String, Cover> e : covers.entrySet()) {
+          if (linked.contains(e.getKey())) {
+            live += e.getValue().recordLength;
+            snapshot.put(e.getKey(), e.getValue());
+          }
+        }
+        boolean copy = force || total - live > garbageRatio * total;
+        if (!copy) {
+          if (dropped > 0 || indexRecords > 2 * links.size()) {
+            rewriteIndex();
+            compactions++;
+            LOG.info("Compacted preview store index in {} ms: dropped {} books", System.currentTimeMillis() - t0,
+                dropped);
+          }
+          return;
+        }
+        old = new HashSet<>(segments);
+      }
+
+      List<Segment> fresh = new ArrayList<>();
+      boolean swapped = false;
+      try {
+        HashMap<String, Cover> copied = new HashMap<>();
+        for (Map.Entry<String, Cover> e : snapshot.entrySet()) {
+          copied.put(e.getKey(), append(fresh, e.getKey(), e.getValue().readAll()));
+        }
+        synchronized (this) {
+          // covers stored while copying went to the old segments
+          Set<String> linked = linkedCovers();
+          for (Map.Entry<String, Cover> e : covers.entrySet()) {
+            if (old.contains(e.getValue().segment) && !copied.containsKey(e.getKey())
+                && linked.contains(e.getKey())) {
+              copied.put(e.getKey(), append(fresh, e.getKey(), e.getValue().readAll()));
+            }
+          }
+          for (Segment s : fresh) {
+            s.channel.force(false);
+          }
+          // segments started while copying stay, the last one is appended to
+          List<Segment> started = new ArrayList<>();
+          for (Segment s : segments) {
+            if (!old.contains(s)) {
+              started.add(s);
+            }
+          }
+          segments.clear();
+          segments.addAll(fresh);
+          segments.addAll(started);
+          for (Iterator<Map.Entry<String, Cover>> it = covers.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Cover> e = it.next();
+            if (old.contains(e.getValue().segment)) {
+              Cover c = copied.get(e.getKey());
+              if (c == null) {
+                it.remove();
+              } else {
+                e.setValue(c);
+              }
+            }
+          }
+          swapped = true;
+          rewriteIndex();
+          // the old segments are only dropped once the index is written
+          for (Segment s : old) {
+            s.channel.close();
+            Files.deleteIfExists(s.file.toPath());
+          }
+          compactions++;
+        }
+      } finally {
+        if (!swapped) {
+          // the store still uses the old segments
+          for (Segment s : fresh) {
+            s.channel.close();
+            Files.deleteIfExists(s.file.toPath());
+          }
+        }
+      }
+      long after = getSize();
+      LOG.info("Compacted preview store in {} ms: dropped {} books, {} bytes of covers before, {} after",
+          System.currentTimeMillis() - t0, dropped, total, after);
+    }
+  }
+
+  /**
+   * @return the covers at least one book is linked to
+   */
+  private Set<String> linkedCovers() {
+    Set<String> linked = new HashSet<>();
+    for (Link l : links.values()) {
+      linked.add(l.cover);
+    }
+    return linked;
+  }
+
+  private void registerMeters(MeterRegistry registry) {
+    Gauge.builder("bookserver.preview.store.size", this, CasPreviewStore::getSize)
+        .description("Bytes in the segments of the preview store")
+        .baseUnit("bytes")
+        .register(registry);
+    Gauge.builder("bookserver.preview.store.covers", this, CasPreviewStore::getCovers)
+        .register(registry);
+    Gauge.builder("bookserver.preview.store.books", this, CasPreviewStore::getBooks)
+        .register(registry);
+    FunctionCounter.builder("bookserver.preview.store.compactions", this, CasPreviewStore::getCompactions)
+        .register(registry);
+  }
+
+  public synchronized long getSize() {
+    long size = 0;
+    for (Segment s : segments) {
+      size += s.size;
+    }
+    return size;
+  }
+
+  public synchronized int getCovers() {
+    return covers.size();
+  }
+
+  public synchronized int getBooks() {
+    return links.size();
+  }
+
+  public synchronized long getCompactions() {
+    return compactions;
+  }
+
+  private boolean hasVariants(String coverHash) {
+    Cover c = covers.get(coverHash);
+    if (c == null) {
+      return false;
+    }
+    for (int h : heights) {
+      for (String format : PreviewGenerator.FORMATS) {
+        if (c.indexOf(PreviewStore.variantKey(h, format)) == -1) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private void link(String name, String coverHash, long time) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+    writeLink(new DataOutputStream(bos), name, coverHash, time);
+    writeFully(index, ByteBuffer.wrap(bos.toByteArray()), -1);
+    indexRecords++;
+    links.put(name, new Link(coverHash, time));
+  }
+
+  private static void writeLink(DataOutputStream out, String name, String coverHash, long time) throws IOException {
+    out.writeUTF(name);
+    out.writeUTF(coverHash);
+    out.writeLong(time);
+  }
+
+  /**
+   * Appends the previews of a cover to the last of the segments, a new one is
+   * started if it would grow beyond the segment size.
+   */
+  private Cover append(List<Segment> target, String coverHash, Map<String, byte[]> variants)
+      throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeUTF(coverHash);
+    out.writeInt(variants.size());
+    String[] keys = new String[variants.size()];
+    int[] lengths = new int[keys.length];
+    int i = 0;
+    long dataLength = 0;
+    for (Map.Entry<String, byte[]> e : variants.entrySet()) {
+      keys[i] = e.getKey();
+      lengths[i] = e.getValue().length;
+      out.writeUTF(keys[i]);
+      out.writeInt(lengths[i]);
+      dataLength += lengths[i++];
+    }
+    out.flush();
+    byte[] header = bos.toByteArray();
+    long recordLength = header.length + dataLength;
+
+    Segment s = target.isEmpty() ? null : target.get(target.size() - 1);
+    if (s == null || (s.size > 0 && s.size + recordLength > segmentSize)) {
+      s = newSegment();
+      target.add(s);
+    }
+    ByteBuffer[] buffers = new ByteBuffer[keys.length + 1];
+    buffers[0] = ByteBuffer.wrap(header);
+    long[] offsets = new long[keys.length];
+    long offset = s.size + header.length;
+    for (i = 0; i < keys.length; i++) {
+      buffers[i + 1] = ByteBuffer.wrap(variants.get(keys[i]));
+      offsets[i] = offset;
+      offset += lengths[i];
+    }
+    long position = s.size;
+    for (ByteBuffer b : buffers) {
+      position = writeFully(s.channel, b, position);
+    }
+    s.size = position;
+    return new Cover(s, keys, offsets, lengths, recordLength);
+  }
+
+  private synchronized Segment newSegment() throws IOException {
+    return new Segment(new File(dir, String.format("%s%06d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX)));
+  }
+
+  /**
+   * @param position where to write, -1 to append
+   * @return the position after the data
+   */
+  private static long writeFully(FileChannel channel, ByteBuffer b, long position) throws IOException {
+    while (b.hasRemaining()) {
+      if (position < 0) {
+        channel.write(b);
+      } else {
+        position += channel.write(b, position);
+      }
+    }
+    return position;
+  }
+
+  /**
+   * Registers the covers of a segment, cutting off a truncated record.
+   */
+  private void scan(Segment s) throws IOException {
+    long size = s.channel.size();
+    MappedByteBuffer map = s.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    int pos = 0;
+    try {
+      while (pos < size) {
+        map.position(pos);
+        String coverHash = readUTF(map);
+        int n = map.getInt();
+        String[] keys = new String[n];
+        int[] lengths = new int[n];
+        long dataLength = 0;
+        for (int i = 0; i < n; i++) {
+          keys[i] = readUTF(map);
+          lengths[i] = map.getInt();
+          dataLength += lengths[i];
+        }
+        long[] offsets = new long[n];
+        long offset = map.position();
+        if (offset + dataLength > size) {
+          break;
+        }
+        for (int i = 0; i < n; i++) {
+          offsets[i] = offset;
+          offset += lengths[i];
+        }
+        covers.put(coverHash, new Cover(s, keys, offsets, lengths, offset - pos));
+        pos = (int) offset;
+      }
+    } catch (RuntimeException e) {
+      // BufferUnderflowException or garbage lengths of a partly written record
+    }
+    if (pos < size) {
+      LOG.warn("Cutting off {} bytes of a truncated record from {}", size - pos, s.file);
+      s.channel.truncate(pos);
+    }
+    s.size = pos;
+  }
+
+  /**
+   * Reads a string written by {@link DataOutputStream#writeUTF}, the digests
+   * and variant keys are plain ASCII.
+   */
+  private static String readUTF(ByteBuffer b) {
+    byte[] utf = new byte[b.getShort() & 0xffff];
+    b.get(utf);
+    return new String(utf, StandardCharsets.US_ASCII);
+  }
+
+  private void replayIndex() throws IOException {
+    File f = new File(dir, INDEX);
+    byte[] data = f.isFile() ? Files.readAllBytes(f.toPath()) : new byte[0];
+    ByteArrayInputStream bis = new ByteArrayInputStream(data);
+    DataInputStream in = new DataInputStream(bis);
+    int pos = 0;
+    try {
+      while (bis.available() > 0) {
+        String name = in.readUTF();
+        String coverHash = in.readUTF();
+        long time = in.readLong();
+        links.put(name, new Link(coverHash, time));
+        indexRecords++;
+        pos = data.length - bis.available();
+      }
+    } catch (EOFException e) {
+      LOG.warn("Cutting off {} bytes of a truncated record from {}", data.length - pos, f);
+    } catch (IOException e) {
+      // UTFDataFormatException of a garbled record, the books after it are
+      // generated again
+      LOG.warn("Cutting off {} bytes of {} from a corrupt record on", data.length - pos, f, e);
+    }
+    index = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    index.truncate(pos);
+    index.position(pos);
+  }
+
+  private void rewriteIndex() throws IOException {
+    File f = new File(dir, INDEX);
+    File tmp = new File(dir, INDEX + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      for (Map.Entry<String, Link> e : links.entrySet()) {
+        writeLink(out, e.getKey(), e.getValue().cover, e.getValue().time);
+      }
+    }
+    index.close();
+    try {
+      Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    index = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+    indexRecords = links.size();
+  }
+
+  private static class Link {
+
+    final String cover;
+    final long time;
+
+    Link(String cover, long time) {
+      this.cover = cover;
+      this.time = time;
+    }
+  }
+
+  /**
+   * The previews of a cover within a segment.
+   */
+  private static class Cover {
+
+    final Segment segment;
+    final String[] keys;
+    final long[] offsets;
+    final int[] lengths;
+    final long recordLength;
+
+    Cover(Segment segment, String[] keys, long[] offsets, int[] lengths, long recordLength) {
+      this.segment = segment;
+      this.keys = keys;
+      this.offsets = offsets;
+      this.lengths = lengths;
+      this.recordLength = recordLength;
+    }
+
+    int indexOf(String key) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i].equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    Map<String, byte[]> readAll() throws IOException {
+      Map<String, byte[]> variants = new LinkedHashMap<>();
+      for (int i = 0; i < keys.length; i++) {
+        variants.put(keys[i], segment.read(offsets[i], lengths[i]));
+      }
+      return variants;
+    }
+  }
+
+  /**
+   * A segment file, read through a mapping which is renewed when the segment
+   * grew beyond it.
+   */
+  private static class Segment {
+
+    final File file;
+    final FileChannel channel;
+    volatile long size;
+    private volatile MappedByteBuffer map;
+
+    Segment(File file) throws IOException {
+      this.file = file;
+      this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+    }
+
+    byte[] read(long offset, int length) throws IOException {
+      MappedByteBuffer m = map;
+      if (m == null || offset + length > m.capacity()) {
+        synchronized (this) {
+          m = map;
+          if (m == null || offset + length > m.capacity()) {
+            m = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            map = m;
+          }
+        }
+      }
+      byte[] data = new byte[length];
+      m.get((int) offset, data);
+      return data;
+    }
+  }
+}
@@ -0,0 +1,663 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Journal of the books added, modified, moved and deleted in the library,
+ * for clients which keep a copy of the library in sync.
+ * <p>
+ * The journal is fed by the {@link ShelfIndex} and numbers the changes
+ * consecutively. It is kept in memory ordered by number, so the changes
+ * after a client's last one are found by binary search, and persisted in an
+ * append-only file next to the preview cache. At startup the file is
+ * replayed and compared with the library as scanned, so changes made while
+ * the server was down are recorded as well. A book which vanishes and shows
+ * up elsewhere with the same name, size and modification time within
+ * <code>move-window</code> ms is recorded as moved, as is one which shows up
+ * under another name in the same folder.
+ * <p>
+ * Compaction drops changes older than the retention period which do not
+ * describe a current book, and raises the floor below which the journal is
+ * no longer complete. A client whose last change is below the floor has to
+ * start over with the full journal. So does a client of another journal,
+ * told apart by the epoch, the creation time of the journal file.
+ *
+ * @author thomas
+ *
+ */
+@Service
+public class ChangeJournal implements ShelfIndex.Listener
+{
+  private static final Logger LOG = LoggerFactory.getLogger(ChangeJournal.class);
+
+  private static final int MAGIC = 0x4243484a;
+  private static final int FORMAT = 1;
+
+  public static final byte ADDED = 1;
+  public static final byte MODIFIED = 2;
+  public static final byte MOVED = 3;
+  public static final byte DELETED = 4;
+
+  @Value("${bookserver.changes.file:${bookserver.preview.cache}/changes.dat}")
+  private String journalFile;
+
+  @Value("${bookserver.changes.retention:2592000000}")
+  private long retention;
+
+  @Value("${bookserver.changes.compact-interval:3600000}")
+  private long compactInterval;
+
+  @Value("${bookserver.changes.move-window:2000}")
+  private long moveWindow;
+
+  @Autowired
+  private ShelfIndex shelfIndex;
+
+  /** the latest change of every current book, guarded by this */
+  private final Map<String, Change> live = new HashMap<>();
+
+  /** the retained changes ordered by number, guarded by this */
+  private final List<Change> log = new ArrayList<>();
+
+  private long epoch;
+  private long floor;
+  private long seq;
+  private DataOutputStream journal;
+
+  /** changes waiting for a matching half of a move, journal thread only */
+  private final Map<String, ShelfIndex.Entry> pendingAdds = new LinkedHashMap<>();
+  private final Map<String, Change> pendingDeletes = new LinkedHashMap<>();
+  private boolean flushScheduled;
+
+  private ScheduledExecutorService executor;
+
+  @PostConstruct
+  public void start() {
+    File f = new File(journalFile);
+    long t0 = System.currentTimeMillis();
+    try {
+      load(f);
+    } catch (IOException e) {
+      LOG.warn("Failed reading change journal {}, starting a new one", f, e);
+      live.clear();
+      log.clear();
+      floor = 0;
+      seq = 0;
+      epoch = 0;
+      f.delete();
+    }
+    if (epoch == 0) {
+      epoch = System.currentTimeMillis();
+    }
+    LOG.info("Loaded {} changes of {} books from {} in {} ms", log.size(), live.size(), f,
+        System.currentTimeMillis() - t0);
+
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "changes");
+      t.setDaemon(true);
+      return t;
+    });
+    shelfIndex.addListener(this);
+    executor.execute(this::reconcile);
+    if (compactInterval > 0) {
+      executor.scheduleWithFixedDelay(this::compact, compactInterval, compactInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    shelfIndex.removeListener(this);
+    executor.shutdownNow();
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        LOG.debug("Failed closing change journal", e);
+      }
+      journal = null;
+    }
+  }
+
+  /**
+   * Reads the changes after a token.
+   *
+   * @param token the token of a previous page, <code>null</code> to read the
+   *          journal from its start
+   * @param limit the maximum number of changes
+   * @return the changes or <code>null</code> if the token is malformed
+   */
+  public synchronized Page read(String token, int limit) {
+    long since = 0;
+    boolean reset = true;
+    if (token != null) {
+      int dash = token.indexOf('-');
+      long tokenEpoch;
+      try {
+        tokenEpoch = Long.parseLong(token.substring(0, Math.max(0, dash)));
+        since = Long.parseLong(token.substring(dash + 1));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      reset = tokenEpoch != epoch || since < floor || since > seq;
+      if (reset) {
+        since = 0;
+      }
+    }
+    int start = firstAfter(since);
+    int end = (int) Math.min(log.size(), (long) start + limit);
+    List<Change> changes = new ArrayList<>(log.subList(start, end));
+    boolean more = end < log.size();
+    long last = more ? changes.get(changes.size() - 1).seq : seq;
+    return new Page(changes, reset, more, epoch + "-" + last);
+  }
+
+  /**
+   * @return index of the first change numbered above <code>since</code>
+   */
+  private int firstAfter(long since) {
+    int lo = 0;
+    int hi = log.size();
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (log.get(mid).seq <= since) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  @Override
+  public void shelfChanged(ShelfIndex.Shelf old, ShelfIndex.Shelf current) {
+    executor.execute(() -> {
+      String shelfPath = current != null ? current.getPath() : old.getPath();
+      if (old != null) {
+        for (ShelfIndex.Entry e : old.getEntries()) {
+          if (isBook(e) && (current == null || current.getEntry(e.getName()) == null)) {
+            removed(child(shelfPath, e.getName()));
+          }
+        }
+      }
+      if (current != null) {
+        for (ShelfIndex.Entry e : current.getEntries()) {
+          if (isBook(e)) {
+            present(child(shelfPath, e.getName()), e);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Records what changed in the library since the journal was written last.
+   */
+  private void reconcile() {
+    Set<String> seen = new HashSet<>();
+    for (String shelfPath : shelfIndex.getShelfPaths()) {
+      ShelfIndex.Shelf shelf = shelfIndex.getShelf(shelfPath);
+      if (shelf == null) {
+        continue;
+      }
+      for (ShelfIndex.Entry e : shelf.getEntries()) {
+        if (isBook(e)) {
+          String path = child(shelfPath, e.getName());
+          seen.add(path);
+          present(path, e);
+        }
+      }
+    }
+    // an unavailable library does not delete all books
+    if (shelfIndex.getShelf("") != null) {
+      List<String> known;
+      synchronized (this) {
+        known = new ArrayList<>(live.keySet());
+      }
+      for (String path : known) {
+        if (!seen.contains(path) && shelfIndex.getEntry(path) == null) {
+          removed(path);
+        }
+      }
+    }
+    flush();
+    compact();
+  }
+
+  private void present(String path, ShelfIndex.Entry e) {
+    pendingDeletes.remove(path);
+    Change c;
+    synchronized (this) {
+      c = live.get(path);
+    }
+    if (c == null) {
+      pendingAdds.put(path, e);
+      scheduleFlush();
+    } else if (c.lastModified != e.getLastModified() || c.length != e.getLength()) {
+      record(MODIFIED, path, null, e.getLastModified(), e.getLength());
+    }
+  }
+
+  private void removed(String path) {
+    pendingAdds.remove(path);
+    Change c;
+    synchronized (this) {
+      c = live.get(path);
+    }
+    if (c != null) {
+      pendingDeletes.put(path, c);
+      scheduleFlush();
+    }
+  }
+
+  private void scheduleFlush() {
+    if (!flushScheduled) {
+      flushScheduled = true;
+      executor.schedule(this::flush, moveWindow, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Records the pending additions and deletions. Pairs of them with the same
+   * name, size and modification time are recorded as moves, then pairs in
+   * the same folder with the same size and modification time as renames.
+   */
+  private void flush() {
+    flushScheduled = false;
+    Map<String, String> moves = new HashMap<>();
+    Set<String> movedFrom = new HashSet<>();
+    pair(moves, movedFrom, true);
+    pair(moves, movedFrom, false);
+    for (Map.Entry<String, ShelfIndex.Entry> me : pendingAdds.entrySet()) {
+      ShelfIndex.Entry e = me.getValue();
+      String from = moves.get(me.getKey());
+      record(from != null ? MOVED : ADDED, me.getKey(), from, e.getLastModified(), e.getLength());
+    }
+    for (String path : pendingDeletes.keySet()) {
+      if (!movedFrom.contains(path)) {
+        record(DELETED, path, null, 0, 0);
+      }
+    }
+    pendingAdds.clear();
+    pendingDeletes.clear();
+  }
+
+  /**
+   * Matches the pending additions with the pending deletions.
+   *
+   * @param moves the previous paths of the moved books by their paths, to
+   *          add the matches to
+   * @param movedFrom the previous paths of the moved books
+   * @param byName <code>true</code> to match books of the same name in any
+   *          folder, <code>false</code> to match books in the same folder
+   */
+  private void pair(Map<String, String> moves, Set<String> movedFrom, boolean byName) {
+    Map<String, Deque<String>> deleted = new HashMap<>();
+    for (Change c : pendingDeletes.values()) {
+      if (!movedFrom.contains(c.path)) {
+        deleted.computeIfAbsent(moveKey(c.path, byName, c.lastModified, c.length), k -> new ArrayDeque<>())
+            .add(c.path);
+      }
+    }
+    if (deleted.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<String, ShelfIndex.Entry> me : pendingAdds.entrySet()) {
+      ShelfIndex.Entry e = me.getValue();
+      if (moves.containsKey(me.getKey())) {
+        continue;
+      }
+      Deque<String> candidates = deleted.get(moveKey(me.getKey(), byName, e.getLastModified(), e.getLength()));
+      String from = candidates == null ? null : candidates.poll();
+      if (from != null) {
+        moves.put(me.getKey(), from);
+        movedFrom.add(from);
+      }
+    }
+  }
+
+  private synchronized void record(byte type, String path, String from, long lastModified, long length) {
+    Change c = new Change(++seq, type, path, from, lastModified, length, System.currentTimeMillis());
+    log.add(c);
+    if (type == DELETED) {
+      live.remove(path);
+    } else {
+      live.put(path, c);
+    }
+    if (from != null) {
+      live.remove(from);
+    }
+    try {
+      if (journal == null) {
+        File f = new File(journalFile);
+        f.getParentFile().mkdirs();
+        boolean fresh = f.length() == 0;
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f, true)));
+        if (fresh) {
+          writeHeader(journal);
+        }
+      }
+      writeRecord(journal, c);
+      journal.flush();
+    } catch (IOException e) {
+      LOG.warn("Failed writing change journal {}", journalFile, e);
+    }
+  }
+
+  /**
+   * Drops the changes older than the retention period which do not describe
+   * a current book and rewrites the journal if any were dropped.
+   */
+  private synchronized void compact() {
+    long cutoff = System.currentTimeMillis() - retention;
+    long newFloor = floor;
+    List<Change> kept = new ArrayList<>(log.size());
+    Iterator<Change> it = log.iterator();
+    while (it.hasNext()) {
+      Change c = it.next();
+      if (c.time >= cutoff) {
+        kept.add(c);
+        break;
+      }
+      if (live.get(c.path) != c) {
+        newFloor = c.seq;
+      } else if (c.type == MOVED) {
+        // where the book came from is of no interest once the floor passed it
+        kept.add(new Change(c.seq, ADDED, c.path, null, c.lastModified, c.length, c.time));
+      } else {
+        kept.add(c);
+      }
+    }
+    if (newFloor == floor) {
+      return;
+    }
+    while (it.hasNext()) {
+      kept.add(it.next());
+    }
+    File f = new File(journalFile);
+    File tmp = new File(f.getParentFile(), f.getName() + ".tmp");
+    int before = log.size();
+    try {
+      long oldFloor = floor;
+      floor = newFloor;
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        writeHeader(out);
+        for (Change c : kept) {
+          writeRecord(out, c);
+        }
+      } catch (IOException e) {
+        floor = oldFloor;
+        throw e;
+      }
+      if (journal != null) {
+        journal.close();
+        journal = null;
+      }
+      try {
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed compacting change journal {}", f, e);
+      return;
+    }
+    log.clear();
+    log.addAll(kept);
+    for (Change c : kept) {
+      Change current = live.get(c.path);
+      if (current != null && current.seq == c.seq) {
+        // the moves turned into additions
+        live.put(c.path, c);
+      }
+    }
+    LOG.info("Compacted change journal from {} to {} changes, complete after change {}", before, kept.size(),
+        floor);
+  }
+
+  private void load(File f) throws IOException {
+    if (!f.isFile()) {
+      return;
+    }
+    byte[] data = Files.readAllBytes(f.toPath());
+    ByteArrayInputStream bin = new ByteArrayInputStream(data);
+    DataInputStream in = new DataInputStream(bin);
+    if (data.length < 24 || in.readInt() != MAGIC || in.readInt() != FORMAT) {
+      throw new IOException("Unknown change journal format");
+    }
+    epoch = in.readLong();
+    floor = in.readLong();
+    seq = floor;
+    long good = data.length - bin.available();
+    try {
+      while (bin.available() > 0) {
+        byte type = in.readByte();
+        if (type < ADDED || type > DELETED) {
+          throw new IOException("Unknown change type " + type);
+        }
+        long n = in.readLong();
+        long time = in.readLong();
+        String path = in.readUTF();
+        String from = type == MOVED ? in.readUTF() : null;
+        long lastModified = type == DELETED ? 0 : in.readLong();
+        long length = type == DELETED ? 0 : in.readLong();
+        Change c = new Change(n, type, path, from, lastModified, length, time);
+        log.add(c);
+        if (type == DELETED) {
+          live.remove(path);
+        } else {
+          live.put(path, c);
+        }
+        if (from != null) {
+          live.remove(from);
+        }
+        seq = Math.max(seq, n);
+        good = data.length - bin.available();
+      }
+    } catch (EOFException e) {
+      LOG.warn("Truncated record at the end of change journal {}, dropping it", f);
+      try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+        raf.setLength(good);
+      }
+    }
+  }
+
+  private void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT);
+    out.writeLong(epoch);
+    out.writeLong(floor);
+  }
+
+  private static void writeRecord(DataOutputStream out, Change c) throws IOException {
+    out.writeByte(c.type);
+    out.writeLong(c.seq);
+    out.writeLong(c.time);
+    out.writeUTF(c.path);
+    if (c.type == MOVED) {
+      out.writeUTF(c.from);
+    }
+    if (c.type != DELETED) {
+      out.writeLong(c.lastModified);
+      out.writeLong(c.length);
+    }
+  }
+
+  /**
+   * @return the name or the folder of the book with its modification time
+   *         and size
+   */
+  private static String moveKey(String path, boolean byName, long lastModified, long length) {
+    int slash = path.lastIndexOf('/');
+    String part = byName ? path.substring(slash + 1) : path.substring(0, Math.max(0, slash)) + "/";
+    return part + '\0' + lastModified + '\0' + length;
+  }
+
+  private static boolean isBook(ShelfIndex.Entry e) {
+    return !e.isDirectory() && e.getName().endsWith(".epub");
+  }
+
+  private static String child(String path, String name) {
+    return path.isEmpty() ? name : path + "/" + name;
+  }
+
+  /**
+   * A change of one book.
+   */
+  public static final class Change {
+
+    private final long seq;
+    private final byte type;
+    private final String path;
+    private final String from;
+    private final long lastModified;
+    private final long length;
+    private final long time;
+
+    Change(long seq, byte type, String path, String from, long lastModified, long length, long time) {
+      this.seq = seq;
+      this.type = type;
+      this.path = path;
+      this.from = from;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.time = time;
+    }
+
+    /**
+     * @return one of {@link #ADDED}, {@link #MODIFIED}, {@link #MOVED} and
+     *         {@link #DELETED}
+     */
+    public byte getType() {
+      return type;
+    }
+
+    /**
+     * @return path of the book relative to the books root
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+     * @return the previous path of a moved book
+     */
+    public String getFrom() {
+      return from;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public long getLength() {
+      return length;
+    }
+  }
+
+  /**
+   * Changes following a token.
+   */
+  public static final class Page {
+
+    private final List<Change> changes;
+    private final boolean reset;
+    private final boolean more;
+    private final String token;
+
+    Page(List<Change> changes, boolean reset, boolean more, String token) {
+      this.changes = changes;
+      this.reset = reset;
+      this.more = more;
+      this.token = token;
+    }
+
+    public List<Change> getChanges() {
+      return changes;
+    }
+
+    /**
+     * @return <code>true</code> if the changes start from the beginning of
+     *         the journal as the token was too old, from another journal or
+     *         missing; the client has to drop what it knows
+     */
+    public boolean isReset() {
+      return reset;
+    }
+
+    /**
+     * @return <code>true</code> if further changes follow the token
+     */
+    public boolean isMore() {
+      return more;
+    }
+
+    /**
+     * @return the token to ask for the following changes with
+     */
+    public String getToken() {
+      return token;
+    }
+  }
+}
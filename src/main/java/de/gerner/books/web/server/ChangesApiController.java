@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.util.UriUtils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Changes of the library for clients which keep a copy of it in sync. A
+ * client passes the token of its last answer as <code>since</code> and gets
+ * the books added, modified, moved and deleted after it, oldest first, and
+ * the token to ask with next time. While <code>more</code> is set the client
+ * asks again right away. With <code>reset</code> set the changes start from
+ * the beginning of the {@link ChangeJournal}, the client then drops what it
+ * knows and rebuilds it from the changes. The first request goes without
+ * token.
+ *
+ * @author thomas
+ *
+ */
+@Controller
+@RequestMapping(value="/books/api/changes")
+public class ChangesApiController
+{
+  private static final String[] TYPES = { null, "added", "modified", "moved", "deleted" };
+
+  @Value("${bookserver.api.page-size:100}")
+  private int pageSize;
+
+  @Value("${bookserver.api.max-page-size:10000}")
+  private int maxPageSize;
+
+  @Autowired
+  private ChangeJournal changeJournal;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @GetMapping
+  public void listChanges(HttpServletResponse rsp, @RequestParam(required=false) String since,
+      @RequestParam(required=false) Integer limit) throws IOException {
+
+    int count = limit == null ? pageSize : Math.max(1, Math.min(limit, maxPageSize));
+    ChangeJournal.Page page = changeJournal.read(since, count);
+    if (page == null) {
+      rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid token");
+      return;
+    }
+    rsp.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    rsp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    rsp.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+
+    try (JsonGenerator g = objectMapper.getFactory().createGenerator(rsp.getOutputStream(), JsonEncoding.UTF8)) {
+      g.writeStartObject();
+      g.writeStringField("token", page.getToken());
+      g.writeBooleanField("reset", page.isReset());
+      g.writeBooleanField("more", page.isMore());
+      g.writeArrayFieldStart("changes");
+      for (ChangeJournal.Change c : page.getChanges()) {
+        g.writeStartObject();
+        g.writeStringField("type", TYPES[c.getType()]);
+        g.writeStringField("path", c.getPath());
+        if (c.getFrom() != null) {
+          g.writeStringField("from", c.getFrom());
+        }
+        if (c.getType() != ChangeJournal.DELETED) {
+          String href = UriUtils.encodePath(c.getPath(), StandardCharsets.UTF_8);
+          g.writeNumberField("mtime", c.getLastModified());
+          g.writeNumberField("size", c.getLength());
+          g.writeStringField("href", "/books/download/" + href);
+          g.writeStringField("preview", "/books/image/" + href.substring(0, href.length() - 5));
+        }
+        g.writeEndObject();
+      }
+      g.writeEndArray();
+      g.writeEndObject();
+    }
+  }
+}
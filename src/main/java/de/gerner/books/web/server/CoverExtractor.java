@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.springframework.util.StreamUtils;
+
+/**
+ * Reads the cover image of an ePub without loading the whole book.
+ * <p>
+ * Only the central directory of the zip, <code>META-INF/container.xml</code>,
+ * the package document (OPF) and the cover entry itself are read. The cover
+ * is looked up like readers do: the EPUB3 <code>cover-image</code> manifest
+ * property, then the EPUB2 <code>&lt;meta name="cover"&gt;</code>, then an
+ * image item named like a cover.
+ *
+ * @author thomas
+ *
+ */
+public class CoverExtractor
+{
+  private static final String CONTAINER = "META-INF/container.xml";
+
+  private static final XMLInputFactory XML_FACTORY = createXmlFactory();
+
+  private CoverExtractor() {
+  }
+
+  /**
+   * @param epub the book
+   * @return the undecoded cover image or <code>null</code> if the book has no
+   *         recognizable cover
+   * @throws IOException if the book is no readable ePub
+   */
+  public static byte[] readCover(File epub) throws IOException {
+    try (ZipFile zip = new ZipFile(epub)) {
+      String opfPath = findPackagePath(zip);
+      if (opfPath == null) {
+        return null;
+      }
+      String coverHref = findCoverHref(zip, opfPath);
+      if (coverHref == null) {
+        return null;
+      }
+      ZipEntry entry = zip.getEntry(resolve(opfPath, coverHref));
+      if (entry == null) {
+        return null;
+      }
+      try (InputStream is = zip.getInputStream(entry)) {
+        return StreamUtils.copyToByteArray(is);
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Malformed package document in " + epub, e);
+    }
+  }
+
+  /**
+   * @return zip path of the package document named in the container
+   */
+  static String findPackagePath(ZipFile zip) throws IOException, XMLStreamException {
+    ZipEntry container = zip.getEntry(CONTAINER);
+    if (container == null) {
+      return null;
+    }
+    try (InputStream is = zip.getInputStream(container)) {
+      XMLStreamReader xr = createXmlReader(is);
+      try {
+        while (xr.hasNext()) {
+          if (xr.next() == XMLStreamConstants.START_ELEMENT && xr.getLocalName().equals("rootfile")) {
+            String mediaType = xr.getAttributeValue(null, "media-type");
+            if (mediaType == null || mediaType.equals("application/oebps-package+xml")) {
+              return xr.getAttributeValue(null, "full-path");
+            }
+          }
+        }
+      } finally {
+        xr.close();
+      }
+    }
+    return null;
+  }
+
+  private static String findCoverHref(ZipFile zip, String opfPath) throws IOException, XMLStreamException {
+    ZipEntry opf = zip.getEntry(opfPath);
+    if (opf == null) {
+      return null;
+    }
+    String coverId = null;
+    String propertyHref = null;
+    String namedHref = null;
+    Map<String, String> imageItems = new HashMap<>();
+    try (InputStream is = zip.getInputStream(opf)) {
+      XMLStreamReader xr = createXmlReader(is);
+      try {
+        while (xr.hasNext()) {
+          if (xr.next() != XMLStreamConstants.START_ELEMENT) {
+            continue;
+          }
+          String name = xr.getLocalName();
+          if (name.equals("meta")) {
+            if ("cover".equals(xr.getAttributeValue(null, "name"))) {
+              coverId = xr.getAttributeValue(null, "content");
+            }
+          } else if (name.equals("item")) {
+            String id = xr.getAttributeValue(null, "id");
+            String href = xr.getAttributeValue(null, "href");
+            String mediaType = xr.getAttributeValue(null, "media-type");
+            String properties = xr.getAttributeValue(null, "properties");
+            if (href == null || mediaType == null || !mediaType.startsWith("image/")) {
+              continue;
+            }
+            if (properties != null && (" " + properties + " ").contains(" cover-image ")) {
+              propertyHref = href;
+            }
+            if (id != null) {
+              imageItems.put(id, href);
+              if (namedHref == null && id.toLowerCase().contains("cover")) {
+                namedHref = href;
+              }
+            }
+            if (namedHref == null && href.toLowerCase().contains("cover")) {
+              namedHref = href;
+            }
+          } else if (name.equals("spine")) {
+            // manifest and metadata are complete
+            break;
+          }
+        }
+      } finally {
+        xr.close();
+      }
+    }
+    if (propertyHref != null) {
+      return propertyHref;
+    }
+    if (coverId != null) {
+      if (imageItems.containsKey(coverId)) {
+        return imageItems.get(coverId);
+      }
+      // some books name the image itself instead of the manifest id
+      if (imageItems.containsValue(coverId)) {
+        return coverId;
+      }
+    }
+    return namedHref;
+  }
+
+  /**
+   * Resolves a manifest href relative to the package document.
+   */
+  static String resolve(String opfPath, String href) {
+    int fragment = href.indexOf('#');
+    if (fragment != -1) {
+      href = href.substring(0, fragment);
+    }
+    try {
+      URI base = new URI(null, null, "/" + opfPath, null);
+      String path = base.resolve(new URI(href)).getPath();
+      return path.startsWith("/") ? path.substring(1) : path;
+    } catch (URISyntaxException e) {
+      // unescaped characters in the href, resolve literally
+      int slash = opfPath.lastIndexOf('/');
+      return slash == -1 ? href : opfPath.substring(0, slash + 1) + href;
+    }
+  }
+
+  /**
+   * @return a namespace aware reader which ignores DTDs and external entities
+   */
+  static XMLStreamReader createXmlReader(InputStream is) throws XMLStreamException {
+    return XML_FACTORY.createXMLStreamReader(is);
+  }
+
+  private static XMLInputFactory createXmlFactory() {
+    XMLInputFactory f = XMLInputFactory.newInstance();
+    f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    return f;
+  }
+}
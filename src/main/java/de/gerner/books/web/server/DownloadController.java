@@ -30,23 +30,30 @@
 package de.gerner.books.web.server;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
 
 /**
+ * Serves the books. Range requests (single and multi range) and conditional
+ * requests on the ETag and modification time are handled by Spring MVC for
+ * {@link Resource} bodies, the transfer itself goes through
+ * {@link JettyResourceHttpMessageConverter}. With download rate limits the
+ * book is sent by the {@link DownloadScheduler} instead.
+ *
  * @author thomas
  *
  */
@@ -54,32 +61,48 @@ import org.springframework.web.bind.annotation.ResponseBody;
 @RequestMapping(value="/books/download")
 public class DownloadController
 {
-  private static final Logger LOG = LoggerFactory.getLogger(DownloadController.class);
-
   @Value("${bookserver.ebooks.root}")
   private String booksRoot;
 
+  @Autowired
+  private DownloadScheduler downloadScheduler;
+
   @GetMapping(path="/**")
   @ResponseBody
-  public ResponseEntity<InputStreamResource> downloadBook(HttpServletRequest req) {
+  public ResponseEntity<Resource> downloadBook(HttpServletRequest req, HttpServletResponse rsp)
+      throws IOException {
     
     String bookName = req.getServletPath().substring(15);
     File root = new File(booksRoot);
     File f = new File(root, bookName);
     
     if (f.isFile()) {
-      try {
-        String fileName = f.getName();
-        return ResponseEntity.ok()
-            .contentLength(f.length())
-            .contentType(MediaType.valueOf("application/epub+zip"))
-            .lastModified(f.lastModified())
-            .header("Content-disposition", "attachment; filename=\""+ fileName + "\"")
-            .body(new InputStreamResource(new FileInputStream(f)));
-      } catch (FileNotFoundException e) {
-        LOG.warn("No such book {}", f, e);
+      String fileName = f.getName();
+      long length = f.length();
+      long lastModified = f.lastModified();
+      if (downloadScheduler.isPaced()) {
+        String eTag = eTag(length, lastModified);
+        if (!new ServletWebRequest(req, rsp).checkNotModified(eTag, lastModified)) {
+          rsp.setContentType("application/epub+zip");
+          rsp.setHeader("Content-disposition", "attachment; filename=\""+ fileName + "\"");
+          downloadScheduler.send(req, rsp, f, eTag);
+        }
+        return null;
       }
+      return ResponseEntity.ok()
+          .contentType(MediaType.valueOf("application/epub+zip"))
+          .lastModified(lastModified)
+          .eTag(eTag(length, lastModified))
+          .header("Content-disposition", "attachment; filename=\""+ fileName + "\"")
+          .body(new FileSystemResource(f));
     }
     return ResponseEntity.notFound().build();
   }
+
+  /**
+   * @return strong entity tag of a file version
+   */
+  static String eTag(long length, long lastModified) {
+    return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+  }
 }
@@ -0,0 +1,498 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+
+/**
+ * Admission and pacing of downloads. The number of running downloads is
+ * limited globally and per client, a client is its authenticated principal
+ * or else its address. Behind a trusted proxy the address is taken from the
+ * proxy's <code>X-Forwarded-For</code> header. Downloads above the limits are turned away at once by
+ * {@link DownloadFilter}, so they never occupy request threads which shelf
+ * pages and previews need.
+ * <p>
+ * With a byte rate configured downloads are sent asynchronously: chunks are
+ * written from a {@link WriteListener} as long as token buckets for all
+ * downloads and for the client allow it, otherwise the next chunk is
+ * scheduled for when they do. No thread waits for a paced download.
+ *
+ * @author thomas
+ *
+ */
+@Service
+public class DownloadScheduler
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DownloadScheduler.class);
+
+  private static final int MIN_CHUNK = 4 * 1024;
+  private static final int MAX_CHUNK = 64 * 1024;
+
+  @Value("${bookserver.download.max-concurrent:32}")
+  private int maxConcurrent;
+
+  @Value("${bookserver.download.max-per-client:4}")
+  private int maxPerClient;
+
+  /** bytes per second for all downloads, 0 is unlimited */
+  @Value("${bookserver.download.rate:0}")
+  private long rate;
+
+  /** bytes per second per client, 0 is unlimited */
+  @Value("${bookserver.download.client-rate:0}")
+  private long clientRate;
+
+  @Value("${bookserver.download.retry-after:10}")
+  private int retryAfter;
+
+  /** addresses or CIDR ranges of the proxies whose X-Forwarded-For is believed */
+  @Value("${bookserver.download.trusted-proxies:}")
+  private String[] trustedProxies;
+
+  private final List<AddressRange> proxies = new ArrayList<>();
+
+  private final Map<String, Client> clients = new HashMap<>();
+  private int active;
+
+  private TokenBucket bucket;
+  private ScheduledExecutorService pacer;
+
+  @PostConstruct
+  public void start() {
+    bucket = rate > 0 ? new TokenBucket(rate) : null;
+    for (String proxy : trustedProxies) {
+      if (!proxy.isBlank()) {
+        proxies.add(AddressRange.parse(proxy.trim()));
+      }
+    }
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread t = new Thread(r, "download-pacer");
+      t.setDaemon(true);
+      return t;
+    });
+    executor.setRemoveOnCancelPolicy(true);
+    pacer = executor;
+  }
+
+  @PreDestroy
+  public void stop() {
+    pacer.shutdownNow();
+  }
+
+  /**
+   * @return <code>true</code> if downloads are rate limited and have to be
+   *         sent by {@link #send}
+   */
+  public boolean isPaced() {
+    return rate > 0 || clientRate > 0;
+  }
+
+  public int getRetryAfter() {
+    return retryAfter;
+  }
+
+  /**
+   * @return the principal's name or the client address, for requests from a
+   *         trusted proxy the last address in <code>X-Forwarded-For</code>
+   *         which is not a trusted proxy itself
+   */
+  public String clientOf(HttpServletRequest req) {
+    Principal p = req.getUserPrincipal();
+    if (p != null) {
+      return p.getName();
+    }
+    String addr = req.getRemoteAddr();
+    if (proxies.isEmpty() || !isTrustedProxy(addr)) {
+      return addr;
+    }
+    List<String> hops = new ArrayList<>();
+    for (Enumeration<String> e = req.getHeaders("X-Forwarded-For"); e.hasMoreElements();) {
+      for (String hop : e.nextElement().split(",")) {
+        if (!hop.isBlank()) {
+          hops.add(hop.trim());
+        }
+      }
+    }
+    Collections.reverse(hops);
+    for (String hop : hops) {
+      addr = hop;
+      if (!isTrustedProxy(hop)) {
+        break;
+      }
+    }
+    return addr;
+  }
+
+  private boolean isTrustedProxy(String addr) {
+    byte[] a = AddressRange.toBytes(addr);
+    if (a == null) {
+      return false;
+    }
+    for (AddressRange r : proxies) {
+      if (r.contains(a)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return a permit to be released when the download is done or
+   *         <code>null</code> if the global or the client's limit is reached
+   */
+  public synchronized Permit tryAcquire(String clientId) {
+    if (active >= maxConcurrent) {
+      return null;
+    }
+    Client client = clients.get(clientId);
+    if (client == null) {
+      client = new Client(clientRate > 0 ? new TokenBucket(clientRate) : null);
+      clients.put(clientId, client);
+    } else if (client.active >= maxPerClient) {
+      return null;
+    }
+    client.active++;
+    active++;
+    return new Permit(clientId, client);
+  }
+
+  private synchronized void release(String clientId, Client client) {
+    active--;
+    if (--client.active == 0) {
+      clients.remove(clientId, client);
+    }
+  }
+
+  /**
+   * Sends the file paced by the rate limits. Headers other than the ones for
+   * the content and its range are set by the caller. A single byte range is
+   * honoured, several ranges get the whole file.
+   */
+  public void send(HttpServletRequest req, HttpServletResponse rsp, File file, String eTag) throws IOException {
+    long length = file.length();
+    long start = 0;
+    long end = length - 1;
+    String range = req.getHeader(HttpHeaders.RANGE);
+    String ifRange = req.getHeader(HttpHeaders.IF_RANGE);
+    rsp.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    if (range != null && (ifRange == null || ifRange.equals(eTag))) {
+      List<HttpRange> ranges;
+      try {
+        ranges = HttpRange.parseRanges(range);
+      } catch (IllegalArgumentException e) {
+        ranges = null;
+      }
+      if (ranges != null && ranges.size() == 1) {
+        HttpRange r = ranges.get(0);
+        start = r.getRangeStart(length);
+        end = r.getRangeEnd(length);
+        if (start >= length || start > end) {
+          rsp.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+          rsp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+          return;
+        }
+        rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        rsp.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+      }
+    }
+    rsp.setContentLengthLong(end - start + 1);
+    if ("HEAD".equals(req.getMethod())) {
+      return;
+    }
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    channel.position(start);
+    send(req, channel, end - start + 1);
+  }
+
+  /**
+   * Sends the given number of bytes read from the source paced by the rate
+   * limits, the headers must be set already. The source is closed when the
+   * response is done.
+   */
+  public void send(HttpServletRequest req, ReadableByteChannel source, long length) throws IOException {
+    Client client;
+    synchronized (this) {
+      client = clients.get(clientOf(req));
+    }
+    AsyncContext ctx = req.startAsync();
+    ctx.setTimeout(0);
+    ServletOutputStream out = ctx.getResponse().getOutputStream();
+    out.setWriteListener(new PacedWriter(ctx, out, source, length, client == null ? null : client.bucket));
+  }
+
+  /**
+   * A running download, released once when it is done.
+   */
+  public final class Permit {
+
+    private final String clientId;
+    private final Client client;
+    private boolean released;
+
+    private Permit(String clientId, Client client) {
+      this.clientId = clientId;
+      this.client = client;
+    }
+
+    public void release() {
+      synchronized (this) {
+        if (released) {
+          return;
+        }
+        released = true;
+      }
+      DownloadScheduler.this.release(clientId, client);
+    }
+  }
+
+  private static class Client {
+
+    private final TokenBucket bucket;
+    private int active;
+
+    Client(TokenBucket bucket) {
+      this.bucket = bucket;
+    }
+  }
+
+  /**
+   * Token bucket holding up to a second of its rate, as the time when the
+   * next byte may be sent. Reserving bytes may put it into debt, the caller
+   * then waits until the debt is paid off.
+   */
+  static class TokenBucket {
+
+    private final long rate;
+    private final long burstNanos = TimeUnit.SECONDS.toNanos(1);
+    private long next = System.nanoTime();
+
+    TokenBucket(long rate) {
+      this.rate = rate;
+    }
+
+    long getRate() {
+      return rate;
+    }
+
+    /**
+     * @return nanoseconds to wait before the bytes may be sent
+     */
+    synchronized long reserve(long bytes, long now) {
+      if (next < now - burstNanos) {
+        next = now - burstNanos;
+      }
+      next += bytes * 1000000000L / rate;
+      return next - now;
+    }
+  }
+
+  /**
+   * Writes the source chunk by chunk whenever the output and the buckets
+   * allow it. Jetty calls {@link #onWritePossible()} again after a write
+   * which could not complete at once, the pacer after a wait for tokens.
+   */
+  private class PacedWriter implements WriteListener {
+
+    private final AsyncContext ctx;
+    private final ServletOutputStream out;
+    private final ReadableByteChannel source;
+    private final TokenBucket clientBucket;
+    private final ByteBuffer buffer;
+    private long remaining;
+    private boolean reserved;
+
+    PacedWriter(AsyncContext ctx, ServletOutputStream out, ReadableByteChannel source, long length,
+        TokenBucket clientBucket) {
+      this.ctx = ctx;
+      this.out = out;
+      this.source = source;
+      this.remaining = length;
+      this.clientBucket = clientBucket;
+      // about 20 chunks a second at the lowest rate
+      long slowest = Math.min(bucket == null ? Long.MAX_VALUE : bucket.getRate(),
+          clientBucket == null ? Long.MAX_VALUE : clientBucket.getRate());
+      int chunk = (int) Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, slowest / 20));
+      this.buffer = ByteBuffer.allocate(chunk);
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+      while (out.isReady()) {
+        if (remaining <= 0) {
+          close();
+          ctx.complete();
+          return;
+        }
+        int n = (int) Math.min(buffer.capacity(), remaining);
+        if (!reserved) {
+          reserved = true;
+          long now = System.nanoTime();
+          long wait = Math.max(bucket == null ? 0 : bucket.reserve(n, now),
+              clientBucket == null ? 0 : clientBucket.reserve(n, now));
+          if (wait > 0) {
+            pacer.schedule(this::resume, wait, TimeUnit.NANOSECONDS);
+            return;
+          }
+        }
+        buffer.clear().limit(n);
+        while (buffer.hasRemaining()) {
+          if (source.read(buffer) < 0) {
+            throw new IOException("Source shrank while sending");
+          }
+        }
+        out.write(buffer.array(), 0, n);
+        remaining -= n;
+        reserved = false;
+      }
+    }
+
+    /**
+     * Continues on a request thread, reading the source is blocking I/O.
+     */
+    private void resume() {
+      ctx.start(() -> {
+        try {
+          onWritePossible();
+        } catch (IOException e) {
+          onError(e);
+        }
+      });
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      LOG.debug("Download aborted", t);
+      close();
+      ctx.complete();
+    }
+
+    private void close() {
+      try {
+        source.close();
+      } catch (IOException e) {
+        LOG.debug("Failed closing {}", source, e);
+      }
+    }
+  }
+
+  /**
+   * An address or a CIDR range of addresses.
+   */
+  static final class AddressRange {
+
+    private final byte[] network;
+    private final int prefix;
+
+    private AddressRange(byte[] network, int prefix) {
+      this.network = network;
+      this.prefix = prefix;
+    }
+
+    /**
+     * @param range an IP address, optionally followed by <code>/</code> and
+     *          the prefix length
+     */
+    static AddressRange parse(String range) {
+      int slash = range.indexOf('/');
+      byte[] network = toBytes(slash == -1 ? range : range.substring(0, slash));
+      if (network == null) {
+        throw new IllegalArgumentException("Not an IP address or range: " + range);
+      }
+      int prefix = slash == -1 ? network.length * 8 : Integer.parseInt(range.substring(slash + 1));
+      if (prefix < 0 || prefix > network.length * 8) {
+        throw new IllegalArgumentException("Bad prefix length in " + range);
+      }
+      return new AddressRange(network, prefix);
+    }
+
+    boolean contains(byte[] addr) {
+      if (addr.length != network.length) {
+        return false;
+      }
+      for (int i = 0; i < prefix; i++) {
+        int bit = 0x80 >> (i % 8);
+        if ((addr[i / 8] & bit) != (network[i / 8] & bit)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return the address or <code>null</code> if it is no IP literal, host
+     *         names are never looked up
+     */
+    static byte[] toBytes(String addr) {
+      // host names have no colons, so only IPv4 literals need checking
+      boolean ipv4 = addr.matches("\\d{1,3}(\\.\\d{1,3}){3}");
+      boolean ipv6 = addr.indexOf(':') != -1 && addr.matches("[0-9a-fA-F:.]+");
+      if (!ipv4 && !ipv6) {
+        return null;
+      }
+      try {
+        return InetAddress.getByName(addr).getAddress();
+      } catch (UnknownHostException e) {
+        return null;
+      }
+    }
+  }
+}
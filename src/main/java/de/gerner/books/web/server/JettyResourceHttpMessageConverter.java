@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.eclipse.jetty.server.HttpOutput;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.stereotype.Component;
+
+/**
+ * Replaces Spring's default resource converter so files are handed to Jetty
+ * as a {@link FileChannel}. Jetty then reads them into its pooled direct
+ * buffers and writes those to the socket, instead of copying every byte
+ * through heap buffers of an {@link java.io.InputStream}. In-memory
+ * {@link ByteBufferResource}s are written by Jetty without any copy.
+ * <p>
+ * With <code>bookserver.download.zero-copy=false</code> everything is
+ * streamed like by the default converter, for comparison.
+ *
+ * @author thomas
+ *
+ */
+@Component
+public class JettyResourceHttpMessageConverter extends ResourceHttpMessageConverter
+{
+  @Value("${bookserver.download.zero-copy:true}")
+  private boolean zeroCopy = true;
+
+  @Override
+  protected void writeContent(Resource resource, HttpOutputMessage outputMessage)
+      throws IOException, HttpMessageNotWritableException {
+    if (zeroCopy && (resource instanceof FileSystemResource || resource instanceof ByteBufferResource)
+        && outputMessage instanceof ServletServerHttpResponse) {
+      OutputStream out = outputMessage.getBody();
+      if (out instanceof HttpOutput) {
+        if (resource instanceof ByteBufferResource) {
+          ((HttpOutput) out).sendContent(((ByteBufferResource) resource).getByteBuffer());
+          return;
+        }
+        try (FileChannel channel = FileChannel.open(((FileSystemResource) resource).getFile().toPath(),
+            StandardOpenOption.READ)) {
+          ((HttpOutput) out).sendContent(channel);
+        }
+        return;
+      }
+    }
+    super.writeContent(resource, outputMessage);
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the Dublin Core metadata of an ePub from its package document,
+ * without touching the content of the book. Series are taken from the
+ * calibre <code>meta</code> elements of EPUB2 and from EPUB3
+ * <code>belongs-to-collection</code>.
+ *
+ * @author thomas
+ *
+ */
+public class MetadataExtractor
+{
+  private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
+  private MetadataExtractor() {
+  }
+
+  /**
+   * @param epub the book
+   * @return the metadata, <code>null</code> if the book has no package document
+   * @throws IOException if the book is no readable ePub
+   */
+  public static BookMetadata read(File epub) throws IOException {
+    try (ZipFile zip = new ZipFile(epub)) {
+      String opfPath = CoverExtractor.findPackagePath(zip);
+      ZipEntry opf = opfPath == null ? null : zip.getEntry(opfPath);
+      if (opf == null) {
+        return null;
+      }
+      try (InputStream is = zip.getInputStream(opf)) {
+        return parse(is, epub.length(), epub.lastModified());
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Malformed package document in " + epub, e);
+    }
+  }
+
+  private static BookMetadata parse(InputStream is, long size, long lastModified) throws XMLStreamException {
+    String title = null;
+    String language = null;
+    String series = null;
+    String seriesIndex = null;
+    List<String> authors = new ArrayList<>();
+    List<String> contributors = new ArrayList<>();
+    List<String> identifiers = new ArrayList<>();
+    // EPUB3 collections and their refinements by id
+    Map<String, String> collections = new HashMap<>();
+    Map<String, String> collectionTypes = new HashMap<>();
+    Map<String, String> positions = new HashMap<>();
+
+    XMLStreamReader xr = CoverExtractor.createXmlReader(is);
+    try {
+      while (xr.hasNext()) {
+        int event = xr.next();
+        if (event == XMLStreamConstants.END_ELEMENT && xr.getLocalName().equals("metadata")) {
+          break;
+        }
+        if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String name = xr.getLocalName();
+        if (DC_NS.equals(xr.getNamespaceURI())) {
+          String role = attribute(xr, "role");
+          String text = xr.getElementText().trim();
+          if (text.isEmpty()) {
+            continue;
+          }
+          if (name.equals("title") && title == null) {
+            title = text;
+          } else if (name.equals("creator")) {
+            if (role == null || role.equals("aut")) {
+              authors.add(text);
+            } else {
+              contributors.add(text);
+            }
+          } else if (name.equals("language") && language == null) {
+            language = text;
+          } else if (name.equals("identifier")) {
+            identifiers.add(text);
+          }
+        } else if (name.equals("meta")) {
+          String metaName = xr.getAttributeValue(null, "name");
+          if (metaName != null) {
+            if (metaName.equals("calibre:series")) {
+              series = xr.getAttributeValue(null, "content");
+            } else if (metaName.equals("calibre:series_index")) {
+              seriesIndex = xr.getAttributeValue(null, "content");
+            }
+            continue;
+          }
+          String property = xr.getAttributeValue(null, "property");
+          String id = xr.getAttributeValue(null, "id");
+          String refines = xr.getAttributeValue(null, "refines");
+          String text = xr.getElementText().trim();
+          if ("belongs-to-collection".equals(property)) {
+            collections.put(id == null ? "" : id, text);
+          } else if (refines != null && refines.startsWith("#")) {
+            if ("collection-type".equals(property)) {
+              collectionTypes.put(refines.substring(1), text);
+            } else if ("group-position".equals(property)) {
+              positions.put(refines.substring(1), text);
+            }
+          }
+        }
+      }
+    } finally {
+      xr.close();
+    }
+
+    if (series == null) {
+      for (Map.Entry<String, String> c : collections.entrySet()) {
+        String type = collectionTypes.get(c.getKey());
+        if (type == null || type.equals("series")) {
+          series = c.getValue();
+          seriesIndex = positions.get(c.getKey());
+          break;
+        }
+      }
+    }
+    if (authors.isEmpty()) {
+      authors = contributors;
+    }
+    return new BookMetadata(size, lastModified, title, authors, language, series, seriesIndex, identifiers);
+  }
+
+  /**
+   * @return attribute of that local name in any namespace, the EPUB2
+   *         <code>opf:role</code> is namespaced while EPUB3 uses refinements
+   */
+  private static String attribute(XMLStreamReader xr, String localName) {
+    for (int i = 0; i < xr.getAttributeCount(); i++) {
+      if (xr.getAttributeLocalName(i).equals(localName)) {
+        return xr.getAttributeValue(i);
+      }
+    }
+    return null;
+  }
+}
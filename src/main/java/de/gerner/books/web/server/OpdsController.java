@@ -0,0 +1,322 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.util.UriUtils;
+
+/**
+ * OPDS 1.2 catalog of the book shelves for e-reader apps.
+ * <p>
+ * The feeds are written with a {@link XMLStreamWriter} straight to the
+ * response. Shelf feeds carry the content hash of the shelf as ETag and the
+ * latest modification of its children as Last-Modified, so polling clients
+ * are answered with 304 from the shelf index alone. The ETag also counts the
+ * books of the page whose metadata the catalog has yet to read, and pages
+ * waiting for metadata have no Last-Modified, so clients get the titles and
+ * authors once they arrive.
+ *
+ * @author thomas
+ *
+ */
+@Controller
+@RequestMapping(value="/books/opds")
+public class OpdsController
+{
+  private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+  private static final String DC_NS = "http://purl.org/dc/terms/";
+  private static final String OPDS_NS = "http://opds-spec.org/2010/catalog";
+  private static final String OPENSEARCH_NS = "http://a9.com/-/spec/opensearch/1.1/";
+
+  private static final String NAVIGATION = "application/atom+xml;profile=opds-catalog;kind=navigation";
+  private static final String ACQUISITION = "application/atom+xml;profile=opds-catalog;kind=acquisition";
+  private static final String OPENSEARCH = "application/opensearchdescription+xml";
+
+  private static final String ROOT = "/books/opds/";
+  private static final String SEARCH = ROOT + "search.xml";
+  private static final String SEARCH_DESCRIPTION = ROOT + "opensearch.xml";
+
+  private static final XMLOutputFactory XML_FACTORY = XMLOutputFactory.newInstance();
+
+  @Value("${bookserver.opds.page-size:50}")
+  private int pageSize;
+
+  @Autowired
+  private ShelfIndex shelfIndex;
+
+  @Autowired
+  private BookCatalog bookCatalog;
+
+  @Autowired
+  private SearchIndex searchIndex;
+
+  @Autowired
+  private PreviewGenerator previewGenerator;
+
+  @GetMapping(path="/opensearch.xml")
+  public void openSearchDescription(HttpServletResponse resp) throws IOException, XMLStreamException {
+    resp.setContentType(OPENSEARCH + ";charset=utf-8");
+    try (OutputStream out = resp.getOutputStream()) {
+      XMLStreamWriter xw = XML_FACTORY.createXMLStreamWriter(out, "UTF-8");
+      xw.writeStartDocument("UTF-8", "1.0");
+      xw.setDefaultNamespace(OPENSEARCH_NS);
+      xw.writeStartElement(OPENSEARCH_NS, "OpenSearchDescription");
+      xw.writeDefaultNamespace(OPENSEARCH_NS);
+      element(xw, OPENSEARCH_NS, "ShortName", "Books");
+      element(xw, OPENSEARCH_NS, "Description", "Search the book collection");
+      element(xw, OPENSEARCH_NS, "InputEncoding", "UTF-8");
+      element(xw, OPENSEARCH_NS, "OutputEncoding", "UTF-8");
+      xw.writeEmptyElement(OPENSEARCH_NS, "Url");
+      xw.writeAttribute("type", ACQUISITION);
+      xw.writeAttribute("template", SEARCH + "?q={searchTerms}&page={startPage?}");
+      xw.writeEndElement();
+      xw.writeEndDocument();
+      xw.close();
+    }
+  }
+
+  @GetMapping(path="/search.xml")
+  public void search(@RequestParam(required=false) String q, @RequestParam(required=false) String page,
+      HttpServletResponse resp) throws IOException, XMLStreamException {
+    String query = q == null ? "" : q.trim();
+    int rqPage = parsePage(page);
+    SearchIndex.Result result = searchIndex.search(query, rqPage * pageSize, pageSize);
+    String self = SEARCH + "?q=" + UriUtils.encodeQueryParam(query, StandardCharsets.UTF_8) + "&page=";
+
+    resp.setContentType(ACQUISITION + ";charset=utf-8");
+    try (OutputStream out = resp.getOutputStream()) {
+      XMLStreamWriter xw = startFeed(out, "urn:bookserver:search:" + query, "Search: " + query,
+          System.currentTimeMillis(), self, rqPage, result.getTotal(), ACQUISITION);
+      link(xw, "up", ROOT, NAVIGATION);
+      for (String path : result.getPaths()) {
+        ShelfIndex.Entry entry = shelfIndex.getEntry(path);
+        if (entry != null) {
+          writeBook(xw, path, entry);
+        }
+      }
+      endFeed(xw);
+    }
+  }
+
+  @GetMapping(path="/**")
+  public void shelf(HttpServletRequest req, @RequestParam(required=false) String page, WebRequest webRequest,
+      HttpServletResponse resp) throws IOException, XMLStreamException {
+    String shelfPath = ShelfIndex.normalize(req.getServletPath().substring(ROOT.length() - 1));
+    ShelfIndex.Shelf shelf = shelfPath == null ? null : shelfIndex.getShelf(shelfPath);
+    if (shelf == null) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    int rqPage = parsePage(page);
+    List<ShelfIndex.Entry> entries = shelf.getEntries();
+    int end = Math.min(entries.size(), (rqPage + 1) * pageSize);
+    int pending = 0;
+    for (int i = rqPage * pageSize; i < end; i++) {
+      ShelfIndex.Entry e = entries.get(i);
+      if (!e.isDirectory() && e.getName().endsWith(".epub")
+          && bookCatalog.get(shelfPath.isEmpty() ? e.getName() : shelfPath + "/" + e.getName(), e) == null) {
+        pending++;
+      }
+    }
+    String eTag = "\"" + shelf.getContentHash() + "-" + rqPage + "-" + pageSize + "-" + pending + "\"";
+    resp.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+    // the metadata arrives later than the books, the dates do not tell
+    if (pending > 0 ? webRequest.checkNotModified(eTag) : webRequest.checkNotModified(eTag, shelf.getLastModified())) {
+      return;
+    }
+
+    boolean navigation = true;
+    for (ShelfIndex.Entry e : entries) {
+      if (!e.isDirectory()) {
+        navigation = false;
+        break;
+      }
+    }
+    String type = navigation ? NAVIGATION : ACQUISITION;
+    String href = ROOT + encodePath(shelfPath) + (shelfPath.isEmpty() ? "" : "/");
+    String title = shelfPath.isEmpty() ? "Büchersammlung" : shelfPath.substring(shelfPath.lastIndexOf('/') + 1);
+
+    resp.setContentType(type + ";charset=utf-8");
+    try (OutputStream out = resp.getOutputStream()) {
+      XMLStreamWriter xw = startFeed(out, "urn:bookserver:shelf:" + shelfPath, title, shelf.getLastModified(),
+          href + "?page=", rqPage, entries.size(), type);
+      if (!shelfPath.isEmpty()) {
+        int slash = shelfPath.lastIndexOf('/');
+        String parent = slash == -1 ? "" : shelfPath.substring(0, slash) + "/";
+        link(xw, "up", ROOT + encodePath(parent), NAVIGATION);
+      }
+      for (int i = rqPage * pageSize; i < end; i++) {
+        ShelfIndex.Entry e = entries.get(i);
+        String path = shelfPath.isEmpty() ? e.getName() : shelfPath + "/" + e.getName();
+        if (e.isDirectory()) {
+          writeShelf(xw, path, e);
+        } else {
+          writeBook(xw, path, e);
+        }
+      }
+      endFeed(xw);
+    }
+  }
+
+  private XMLStreamWriter startFeed(OutputStream out, String id, String title, long updated, String pageHref,
+      int page, int total, String type) throws XMLStreamException {
+    XMLStreamWriter xw = XML_FACTORY.createXMLStreamWriter(out, "UTF-8");
+    xw.writeStartDocument("UTF-8", "1.0");
+    xw.setDefaultNamespace(ATOM_NS);
+    xw.setPrefix("dc", DC_NS);
+    xw.setPrefix("opds", OPDS_NS);
+    xw.setPrefix("opensearch", OPENSEARCH_NS);
+    xw.writeStartElement(ATOM_NS, "feed");
+    xw.writeDefaultNamespace(ATOM_NS);
+    xw.writeNamespace("dc", DC_NS);
+    xw.writeNamespace("opds", OPDS_NS);
+    xw.writeNamespace("opensearch", OPENSEARCH_NS);
+    element(xw, ATOM_NS, "id", id);
+    element(xw, ATOM_NS, "title", title);
+    element(xw, ATOM_NS, "updated", timestamp(updated));
+    link(xw, "self", pageHref + (page + 1), type);
+    link(xw, "start", ROOT, NAVIGATION);
+    link(xw, "search", SEARCH_DESCRIPTION, OPENSEARCH);
+    int lastPage = Math.max(0, (total - 1) / pageSize);
+    if (lastPage > 0) {
+      link(xw, "first", pageHref + 1, type);
+      link(xw, "last", pageHref + (lastPage + 1), type);
+    }
+    if (page > 0) {
+      link(xw, "previous", pageHref + page, type);
+    }
+    if (page < lastPage) {
+      link(xw, "next", pageHref + (page + 2), type);
+    }
+    element(xw, OPENSEARCH_NS, "totalResults", Integer.toString(total));
+    element(xw, OPENSEARCH_NS, "itemsPerPage", Integer.toString(pageSize));
+    element(xw, OPENSEARCH_NS, "startIndex", Integer.toString(page * pageSize + 1));
+    return xw;
+  }
+
+  private void endFeed(XMLStreamWriter xw) throws XMLStreamException {
+    xw.writeEndElement();
+    xw.writeEndDocument();
+    xw.close();
+  }
+
+  private void writeShelf(XMLStreamWriter xw, String path, ShelfIndex.Entry e) throws XMLStreamException {
+    xw.writeStartElement(ATOM_NS, "entry");
+    element(xw, ATOM_NS, "title", e.getName());
+    element(xw, ATOM_NS, "id", "urn:bookserver:shelf:" + path);
+    element(xw, ATOM_NS, "updated", timestamp(e.getLastModified()));
+    link(xw, "subsection", ROOT + encodePath(path) + "/", NAVIGATION);
+    xw.writeEndElement();
+  }
+
+  private void writeBook(XMLStreamWriter xw, String path, ShelfIndex.Entry e) throws XMLStreamException {
+    BookMetadata md = bookCatalog.get(path, e);
+    BooksController.Book book = new BooksController.Book(null, e, md);
+    xw.writeStartElement(ATOM_NS, "entry");
+    element(xw, ATOM_NS, "title", book.getBookText());
+    element(xw, ATOM_NS, "id", "urn:bookserver:book:" + path);
+    element(xw, ATOM_NS, "updated", timestamp(e.getLastModified()));
+    if (md != null) {
+      for (String author : md.getAuthors()) {
+        xw.writeStartElement(ATOM_NS, "author");
+        element(xw, ATOM_NS, "name", author);
+        xw.writeEndElement();
+      }
+      if (md.getLanguage() != null) {
+        element(xw, DC_NS, "language", md.getLanguage());
+      }
+      for (String identifier : md.getIdentifiers()) {
+        element(xw, DC_NS, "identifier", identifier);
+      }
+    }
+    String name = e.getName();
+    link(xw, "http://opds-spec.org/acquisition", "/books/download/" + encodePath(path), "application/epub+zip");
+    if (name.endsWith(".epub")) {
+      String image = "/books/image/" + encodePath(path.substring(0, path.length() - 4) + "png");
+      int[] heights = previewGenerator.getHeights();
+      link(xw, "http://opds-spec.org/image", image + "?h=" + heights[heights.length - 1], "image/png");
+      link(xw, "http://opds-spec.org/image/thumbnail", image, "image/png");
+    }
+    xw.writeEndElement();
+  }
+
+  private static void link(XMLStreamWriter xw, String rel, String href, String type) throws XMLStreamException {
+    xw.writeEmptyElement(ATOM_NS, "link");
+    xw.writeAttribute("rel", rel);
+    xw.writeAttribute("href", href);
+    xw.writeAttribute("type", type);
+  }
+
+  private static void element(XMLStreamWriter xw, String ns, String name, String text) throws XMLStreamException {
+    xw.writeStartElement(ns, name);
+    xw.writeCharacters(text);
+    xw.writeEndElement();
+  }
+
+  private static String timestamp(long millis) {
+    return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(millis));
+  }
+
+  private static String encodePath(String path) {
+    return UriUtils.encodePath(path, StandardCharsets.UTF_8);
+  }
+
+  private static int parsePage(String page) {
+    if (page != null && !page.isEmpty()) {
+      try {
+        return Math.max(0, Integer.parseInt(page) - 1);
+      } catch (NumberFormatException e) {
+        // first page
+      }
+    }
+    return 0;
+  }
+}
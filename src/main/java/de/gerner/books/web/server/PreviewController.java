@@ -29,34 +29,41 @@
  */
 package de.gerner.books.web.server;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
-import javax.imageio.ImageIO;
+import jakarta.annotation.PostConstruct;
 import jakarta.servlet.http.HttpServletRequest;
 
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
-import java.io.File;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
-import nl.siegmann.epublib.domain.Book;
-import nl.siegmann.epublib.domain.Resource;
-import nl.siegmann.epublib.epub.EpubReader;
-
 /**
+ * Serves the cover previews. <code>h</code> selects the height, the next
+ * configured one is served. Names ending in <code>.png</code> or
+ * <code>.jpg</code> get that format, for names without extension the format
+ * is negotiated: JPEG if the client accepts it, PNG otherwise.
+ *
  * @author thomas
  *
  */
@@ -66,89 +73,178 @@ public class PreviewController
 {
   private static final Logger LOG = LoggerFactory.getLogger(PreviewController.class);
 
-  private static final int MAX_COVER_IMG_HEIGHT = 160;
-
-  @Value("${bookserver.preview.cache}")
-  private String imgRoot;
-
   @Value("${bookserver.ebooks.root}")
   private String booksRoot;
 
+  @Value("${bookserver.preview.wait-timeout:10000}")
+  private long waitTimeout;
+
+  @Value("${bookserver.preview.retry-after:5}")
+  private int retryAfter;
+
+  @Autowired
+  private PreviewGenerator previewGenerator;
+
+  @Autowired
+  private PreviewMemoryCache memoryCache;
+
+  @Autowired
+  private ShelfIndex shelfIndex;
+
+  @Autowired
+  private BooksMetrics metrics;
+
+  private byte[] noPreview;
+
+  @PostConstruct
+  public void loadNoPreview() {
+    try (InputStream is = getClass().getResourceAsStream("/static/books/NoPreview.png")) {
+      if (is != null) {
+        noPreview = StreamUtils.copyToByteArray(is);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed loading NoPreview image", e);
+    }
+  }
+
   @GetMapping(path="/**")
   @ResponseBody
-  public ResponseEntity<InputStreamResource> downloadPreviewImage(HttpServletRequest req) {
+  public CompletableFuture<ResponseEntity<Resource>> downloadPreviewImage(HttpServletRequest req,
+      @RequestParam(required=false) Integer h, @RequestHeader(value=HttpHeaders.ACCEPT, required=false) String accept) {
 
-    String imgName = req.getServletPath().substring(12);
-    File root = new File(imgRoot);
-    File f = new File(root, imgName);
+    String imgName = ShelfIndex.normalize(req.getServletPath().substring(12));
+    if (imgName == null || imgName.isEmpty()) {
+      return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+    }
 
     try {
-      if (f.isFile()) {
-        return getResponseEntity(f);
+      // test if there is a book of that name
+      boolean negotiated = !(imgName.endsWith(".png") || imgName.endsWith(".jpg"));
+      String baseName = negotiated ? imgName : imgName.substring(0, imgName.length() - 4);
+      boolean jpeg = negotiated ? acceptsJpeg(accept) : imgName.endsWith(".jpg");
+      String format = jpeg ? "jpg" : "png";
+      int height = previewGenerator.chooseHeight(h);
+      MediaType type = jpeg ? MediaType.IMAGE_JPEG : MediaType.IMAGE_PNG;
+      String key = baseName + "@" + PreviewStore.variantKey(height, format);
+      String bookName = baseName + ".epub";
+      File bRoot = new File(booksRoot);
+      File bf = new File(bRoot, bookName);
+      long bookLastModified;
+      ShelfIndex.Entry book = shelfIndex.getEntry(bookName);
+      if (book != null) {
+        bookLastModified = book.getLastModified();
+      } else if (bf.isFile()) {
+        // not yet seen by the shelf index
+        bookLastModified = bf.lastModified();
       } else {
-        // test if there is a book of that name
-        int ext = imgName.lastIndexOf('.');
-        if (ext == -1 || !imgName.endsWith(".png")) {
-          return ResponseEntity.notFound().build();
-        }
-        String bookName = imgName.substring(0, ext);
-        File bRoot = new File(booksRoot);
-        File bf = new File(bRoot, bookName + ".epub");
-        if (!bf.isFile()) {
-          return ResponseEntity.notFound().build();
+        return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+      }
+
+      PreviewMemoryCache.Preview cached = memoryCache.get(key, bookLastModified);
+      if (cached != null) {
+        metrics.previewFromMemory();
+        return CompletableFuture.completedFuture(getResponseEntity(cached, type, negotiated));
+      }
+      PreviewMemoryCache.Preview stored = load(key, baseName, bookLastModified, height, format);
+      if (stored != null) {
+        metrics.previewFromDisk();
+        return CompletableFuture.completedFuture(getResponseEntity(stored, type, negotiated));
+      }
+
+      if (previewGenerator.hasFailed(bf, baseName)) {
+        metrics.previewUnavailable();
+        return CompletableFuture.completedFuture(getNoPreview());
+      }
+
+      CompletableFuture<Boolean> job;
+      try {
+        job = previewGenerator.submit(bf, baseName);
+      } catch (RejectedExecutionException e) {
+        LOG.debug("Preview queue full, deferring {}", bf);
+        metrics.previewBusy();
+        return CompletableFuture.completedFuture(getRetryLater());
+      }
+      // the request thread is released while the preview is generated
+      return job.handle((created, t) -> {
+        try {
+          if (created != null && created) {
+            PreviewMemoryCache.Preview generated = load(key, baseName, bookLastModified, height, format);
+            if (generated != null) {
+              metrics.previewGenerated();
+              return getResponseEntity(generated, type, negotiated);
+            }
+          }
+        } catch (IOException e) {
+          LOG.warn("Preview {} vanished", key, e);
         }
-        createPreview(bf, f);
-        if (f.isFile()) {
-          return getResponseEntity(f);
-        } else {
-          // return NoPreview image
-          InputStream noPreview = getClass().getResourceAsStream("/books/static/NoPreview.png");
-          if (noPreview != null)
-            return ResponseEntity.ok().contentType(MediaType.IMAGE_PNG).body(new InputStreamResource(noPreview));
-          else
-            return ResponseEntity.notFound().build();
+        metrics.previewUnavailable();
+        return getNoPreview();
+      }).completeOnTimeout(getRetryLater(), waitTimeout, TimeUnit.MILLISECONDS);
+
+    } catch (Exception e) {
+      return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the client accepts JPEG
+   */
+  static boolean acceptsJpeg(String accept) {
+    if (accept == null) {
+      return true;
+    }
+    try {
+      for (MediaType mt : MediaType.parseMediaTypes(accept)) {
+        if (mt.includes(MediaType.IMAGE_JPEG) && mt.getQualityValue() > 0) {
+          return true;
         }
       }
+    } catch (InvalidMediaTypeException e) {
+      LOG.debug("Bad Accept header {}", accept);
+    }
+    return false;
+  }
 
-    } catch (Exception e) {
-      return ResponseEntity.notFound().build();
+  /**
+   * @return the preview from the store, <code>null</code> if there is none
+   *         made from this version of the book
+   */
+  private PreviewMemoryCache.Preview load(String key, String name, long bookLastModified, int height, String format)
+      throws IOException {
+    byte[] data = previewGenerator.read(name, bookLastModified, height, format);
+    return data == null ? null : memoryCache.put(key, bookLastModified, data);
+  }
+
+  private ResponseEntity<Resource> getResponseEntity(PreviewMemoryCache.Preview preview, MediaType type,
+      boolean negotiated) {
+    ResponseEntity.BodyBuilder rsp = ResponseEntity.ok()
+        .contentLength(preview.getSize())
+        .contentType(type);
+    if (negotiated) {
+      rsp.varyBy(HttpHeaders.ACCEPT);
     }
+    return rsp.body(preview.getResource());
   }
 
-  private ResponseEntity<InputStreamResource> getResponseEntity(File f) throws FileNotFoundException {
-    return ResponseEntity.ok()
-        .contentLength(f.length())
-        .contentType(MediaType.IMAGE_PNG)
-        .body(new InputStreamResource(new FileInputStream(f)));
+  private ResponseEntity<Resource> getNoPreview() {
+    if (noPreview == null) {
+      return ResponseEntity.notFound().build();
+    }
+    return ResponseEntity.ok().contentType(MediaType.IMAGE_PNG).body(new ByteArrayResource(noPreview));
   }
 
-  private void createPreview(File bookFile, File preview)
-  {
-    try {
-      // open eBook and extract cover image
-      InputStream is = new FileInputStream(bookFile);
-      EpubReader bookReader = new EpubReader();
-      Book book = bookReader.readEpub(is);
-      is.close();
-      Resource coverResource = book.getCoverImage();
-      is = coverResource.getInputStream();
-      BufferedImage coverImg = ImageIO.read(is);
-      is.close();
-      int cWidth = coverImg.getWidth();
-      int cHeight = coverImg.getHeight();
-      double scale = (double) MAX_COVER_IMG_HEIGHT / (double) cHeight;
-      int imgWidth = Double.valueOf(scale * cWidth).intValue();
-      BufferedImage previewImg = new BufferedImage(imgWidth, MAX_COVER_IMG_HEIGHT, coverImg.getType());
-      Graphics2D g = previewImg.createGraphics();
-      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-      g.drawImage(coverImg, 0, 0, imgWidth, MAX_COVER_IMG_HEIGHT, 0, 0, coverImg.getWidth(),
-          coverImg.getHeight(), null);
-      g.dispose();
-      File previewDir = preview.getParentFile();
-      previewDir.mkdirs();
-      ImageIO.write(previewImg, "png", preview);
-    } catch (Exception e) {
-      LOG.warn("Failed to open book file {}, {}", bookFile.getAbsolutePath(), e);
+  /**
+   * Placeholder for a preview which could not be generated in time, the
+   * client should ask again soon.
+   */
+  private ResponseEntity<Resource> getRetryLater() {
+    if (noPreview == null) {
+      return ResponseEntity.status(503).header(HttpHeaders.RETRY_AFTER, Integer.toString(retryAfter)).build();
     }
+    return ResponseEntity.ok()
+        .contentType(MediaType.IMAGE_PNG)
+        .header(HttpHeaders.RETRY_AFTER, Integer.toString(retryAfter))
+        .cacheControl(CacheControl.maxAge(retryAfter, TimeUnit.SECONDS))
+        .body(new ByteArrayResource(noPreview));
   }
 }
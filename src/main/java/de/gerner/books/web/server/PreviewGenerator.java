@@ -0,0 +1,571 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.epub.EpubReader;
+
+/**
+ * Generates the cover previews on a dedicated, bounded executor.
+ * <p>
+ * A job encodes the preview in every configured height as PNG and JPEG and
+ * hands them to the {@link PreviewStore}. The cover is decoded once and
+ * scaled down from the largest height to the smallest. If the store already
+ * holds the previews of an identical cover, the book is only linked to them.
+ * <p>
+ * Previews are named like their book relative to the library root without
+ * the <code>.epub</code> extension. Concurrent requests for the same preview
+ * share one job. If the cache is shared with other servers, a job generates
+ * the preview only while holding its {@link PreviewLeases lease}. A job
+ * finding the lease taken does not occupy a preview thread while it waits,
+ * it is queued again after the poll interval.
+ *
+ * @author thomas
+ *
+ */
+@Service
+public class PreviewGenerator
+{
+  private static final Logger LOG = LoggerFactory.getLogger(PreviewGenerator.class);
+
+  /** formats of the variants, as file extensions */
+  static final String[] FORMATS = { "png", "jpg" };
+
+  @Value("${bookserver.preview.threads:2}")
+  private int threads;
+
+  @Value("${bookserver.preview.queue-size:32}")
+  private int queueSize;
+
+  /** heights of the previews, the first is the default */
+  @Value("${bookserver.preview.heights:160,320,640}")
+  private int[] heights;
+
+  @Value("${bookserver.preview.jpeg-quality:0.8}")
+  private float jpegQuality;
+
+  @Autowired
+  private PreviewStore store;
+
+  @Autowired
+  private PreviewLeases leases;
+
+  @Autowired
+  private BooksMetrics metrics;
+
+  private final ConcurrentHashMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+  private ThreadPoolExecutor executor;
+
+  /** queues jobs waiting for a lease again, only used with a shared cache */
+  private ScheduledExecutorService leasePoller;
+
+  @PostConstruct
+  public void start() {
+    heights = heights.clone();
+    Arrays.sort(heights);
+    final AtomicInteger count = new AtomicInteger();
+    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), r -> {
+          Thread t = new Thread(r, "preview-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+    executor.allowCoreThreadTimeOut(true);
+    if (leases.isEnabled()) {
+      leasePoller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "preview-lease-poll");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (leasePoller != null) {
+      leasePoller.shutdownNow();
+    }
+    executor.shutdownNow();
+  }
+
+  /**
+   * Queues the generation of a preview. If the preview is already being
+   * generated the running job is returned.
+   *
+   * @param bookFile the ePub
+   * @param name the name of the preview
+   * @return completes with <code>true</code> if the preview was stored,
+   *         <code>false</code> if the book has no usable cover, exceptionally
+   *         if reading the book or storing the preview failed
+   * @throws RejectedExecutionException if the queue is full
+   */
+  public CompletableFuture<Boolean> submit(File bookFile, String name) {
+    CompletableFuture<Boolean> job = new CompletableFuture<>();
+    CompletableFuture<Boolean> running = inFlight.putIfAbsent(name, job);
+    if (running != null) {
+      return running;
+    }
+    try {
+      executor.execute(() -> run(bookFile, name, job));
+    } catch (RejectedExecutionException e) {
+      inFlight.remove(name, job);
+      job.completeExceptionally(e);
+      throw e;
+    }
+    return job;
+  }
+
+  /**
+   * Generates a preview on the calling thread, joining a job which is already
+   * running for it.
+   *
+   * @return <code>true</code> if the preview was stored, <code>false</code>
+   *         if the book has no usable cover or the job failed, which is
+   *         logged and tried again on a later call
+   */
+  public boolean generate(File bookFile, String name) {
+    CompletableFuture<Boolean> job = new CompletableFuture<>();
+    CompletableFuture<Boolean> running = inFlight.putIfAbsent(name, job);
+    if (running == null) {
+      run(bookFile, name, job);
+      running = job;
+    }
+    try {
+      return running.join();
+    } catch (CompletionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param bookPath path of the ePub relative to the library root
+   * @return the name of its preview
+   */
+  public static String previewName(String bookPath) {
+    return bookPath.endsWith(".epub") ? bookPath.substring(0, bookPath.length() - 5) : bookPath;
+  }
+
+  /**
+   * @return the preview heights, smallest first
+   */
+  public int[] getHeights() {
+    return heights.clone();
+  }
+
+  public float getJpegQuality() {
+    return jpegQuality;
+  }
+
+  /**
+   * @return the smallest configured height not below the requested one, the
+   *         default height if none was requested
+   */
+  public int chooseHeight(Integer requested) {
+    if (requested == null) {
+      return heights[0];
+    }
+    for (int h : heights) {
+      if (h >= requested) {
+        return h;
+      }
+    }
+    return heights[heights.length - 1];
+  }
+
+  /**
+   * @return the preview in this height and format, <code>null</code> if there
+   *         is none made from this version of the book
+   */
+  public byte[] read(String name, long bookLastModified, int height, String format) throws IOException {
+    return store.read(name, bookLastModified, height, format);
+  }
+
+  /**
+   * @return <code>true</code> if all variants of the preview were made from
+   *         this version of the book
+   */
+  public boolean isUpToDate(File bookFile, String name) {
+    return store.isUpToDate(name, bookFile.lastModified());
+  }
+
+  /**
+   * @return <code>true</code> if creating the preview from this version of the
+   *         book failed before
+   */
+  public boolean hasFailed(File bookFile, String name) {
+    return store.hasFailed(name, bookFile.lastModified());
+  }
+
+  private void run(File bookFile, String name, CompletableFuture<Boolean> job) {
+    if (leases.isEnabled()) {
+      runShared(bookFile, name, job, System.currentTimeMillis(), false);
+      return;
+    }
+    try {
+      job.complete(runLocal(bookFile, name, null));
+    } catch (Throwable t) {
+      fail(bookFile, job, t);
+    } finally {
+      inFlight.remove(name, job);
+    }
+  }
+
+  /**
+   * @param lease the lease the preview is generated under, renewed between
+   *          the steps, <code>null</code> if the cache is not shared
+   */
+  private boolean runLocal(File bookFile, String name, PreviewLeases.Lease lease) throws IOException {
+    // an earlier job may have finished between the caller's check and now
+    if (isUpToDate(bookFile, name)) {
+      return true;
+    }
+    boolean created = createPreview(bookFile, name, lease);
+    if (!created) {
+      // remember the failure so the book is not parsed again until it changes
+      store.markFailed(name);
+    }
+    return created;
+  }
+
+  /**
+   * Fails a job whose book could not be read or whose preview could not be
+   * stored. Unlike a book without a usable cover it is not marked as failed,
+   * the next request tries again.
+   */
+  private static void fail(File bookFile, CompletableFuture<Boolean> job, Throwable t) {
+    LOG.warn("Failed to create the preview of {}", bookFile.getAbsolutePath(), t);
+    job.completeExceptionally(t);
+  }
+
+  /**
+   * Generates the preview under its lease in a cache shared with other
+   * processes. While another process holds the lease the job is queued again
+   * after the poll interval, until that process has stored the preview or its
+   * failure, the lease is given up or expires, or the job has waited longer
+   * than <code>lease-max-wait</code>.
+   *
+   * @param since when the job started waiting
+   * @param waited <code>true</code> if the job found the lease taken before
+   */
+  private void runShared(File bookFile, String name, CompletableFuture<Boolean> job, long since, boolean waited) {
+    try {
+      Boolean result = tryShared(bookFile, name);
+      if (result == null) {
+        if (!waited) {
+          metrics.previewLeaseWaited();
+        }
+        if (System.currentTimeMillis() - since >= leases.getMaxWait()) {
+          throw new TimeoutException("Lease of preview " + name + " still taken after "
+              + leases.getMaxWait() + " ms");
+        }
+        leasePoller.schedule(() -> requeue(bookFile, name, job, since),
+            leases.getPollInterval(), TimeUnit.MILLISECONDS);
+        return;
+      }
+      job.complete(result);
+    } catch (Throwable t) {
+      fail(bookFile, job, t);
+    }
+    inFlight.remove(name, job);
+  }
+
+  /**
+   * @return the outcome of the job, <code>null</code> if another process holds
+   *         the lease
+   */
+  private Boolean tryShared(File bookFile, String name) throws IOException {
+    long bookLastModified = bookFile.lastModified();
+    if (store.isUpToDate(name, bookLastModified)) {
+      return true;
+    }
+    if (store.hasFailed(name, bookLastModified)) {
+      return false;
+    }
+    try (PreviewLeases.Lease lease = leases.tryAcquire(name)) {
+      if (lease == null) {
+        return null;
+      }
+      // the previous holder may have finished since the checks above
+      if (store.hasFailed(name, bookLastModified)) {
+        return false;
+      }
+      return runLocal(bookFile, name, lease);
+    }
+  }
+
+  /**
+   * Hands a waiting job back to the preview threads, or retries later while
+   * their queue is full.
+   */
+  private void requeue(File bookFile, String name, CompletableFuture<Boolean> job, long since) {
+    try {
+      executor.execute(() -> runShared(bookFile, name, job, since, true));
+    } catch (RejectedExecutionException e) {
+      if (executor.isShutdown() || leasePoller.isShutdown()) {
+        job.completeExceptionally(e);
+        inFlight.remove(name, job);
+      } else {
+        leasePoller.schedule(() -> requeue(bookFile, name, job, since),
+            leases.getPollInterval(), TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * @return <code>false</code> if the book has no cover or it cannot be
+   *         decoded
+   * @throws IOException if the book cannot be read or the preview cannot be
+   *           encoded or stored
+   */
+  private boolean createPreview(File bookFile, String name, PreviewLeases.Lease lease) throws IOException
+  {
+    long t0 = System.nanoTime();
+    byte[] cover = readCoverData(bookFile);
+    renew(lease);
+    if (cover == null) {
+      LOG.warn("No cover image in book file {}", bookFile.getAbsolutePath());
+      return false;
+    }
+    String coverHash = coverHash(cover);
+    if (store.link(name, coverHash)) {
+      LOG.debug("Linked {} to the previews of an identical cover", name);
+      return true;
+    }
+    BufferedImage coverImg;
+    try {
+      coverImg = ImageIO.read(new ByteArrayInputStream(cover));
+    } catch (IIOException e) {
+      // the bytes are in memory, this is the content and not the disk
+      LOG.debug("Decoding the cover of {} failed", bookFile, e);
+      coverImg = null;
+    }
+    renew(lease);
+    if (coverImg == null) {
+      LOG.warn("Undecodable cover image in book file {}", bookFile.getAbsolutePath());
+      return false;
+    }
+    long t1 = System.nanoTime();
+    long scaleNanos = 0;
+    Map<String, byte[]> variants = new LinkedHashMap<>();
+    BufferedImage img = coverImg;
+    for (int i = heights.length - 1; i >= 0; i--) {
+      long ts = System.nanoTime();
+      // covers are not scaled up, the larger variants are then the cover
+      img = scale(img, Math.min(heights[i], img.getHeight()));
+      scaleNanos += System.nanoTime() - ts;
+      renew(lease);
+      for (String format : FORMATS) {
+        variants.put(PreviewStore.variantKey(heights[i], format), encode(img, format, jpegQuality));
+        renew(lease);
+      }
+    }
+    store.put(name, coverHash, variants);
+    metrics.previewCreated(t1 - t0, scaleNanos, System.nanoTime() - t0);
+    return true;
+  }
+  /**
+   * Renews the lease after a step, a hanging step lets it expire.
+   */
+  private static void renew(PreviewLeases.Lease lease) {
+    if (lease != null) {
+      lease.renew();
+    }
+  }
+
+
+  /**
+   * Scales the cover down to the given height. Bilinear interpolation skips
+   * source pixels when shrinking by more than half, so the cover is halved
+   * until it is less than twice the height and then scaled to it. That is
+   * close to area averaging at a fraction of its cost.
+   */
+  static BufferedImage scale(BufferedImage coverImg, int height) {
+    int cWidth = coverImg.getWidth();
+    int cHeight = coverImg.getHeight();
+    if (cHeight == height) {
+      return coverImg;
+    }
+    int imgWidth = Math.max(1, (int) Math.round((double) cWidth * height / cHeight));
+    BufferedImage img = coverImg;
+    while (img.getHeight() / 2 >= height && img.getHeight() / 2 > 0) {
+      img = resize(img, Math.max(imgWidth, img.getWidth() / 2), img.getHeight() / 2);
+    }
+    return img.getHeight() == height ? img : resize(img, imgWidth, height);
+  }
+
+  private static BufferedImage resize(BufferedImage coverImg, int imgWidth, int height) {
+    int cWidth = coverImg.getWidth();
+    int cHeight = coverImg.getHeight();
+    int type = coverImg.getType();
+    if (type == BufferedImage.TYPE_CUSTOM || type == BufferedImage.TYPE_BYTE_INDEXED
+        || type == BufferedImage.TYPE_BYTE_BINARY) {
+      // palette images would be scaled into their palette
+      type = coverImg.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+    BufferedImage previewImg = new BufferedImage(imgWidth, height, type);
+    Graphics2D g = previewImg.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.drawImage(coverImg, 0, 0, imgWidth, height, 0, 0, cWidth, cHeight, null);
+    g.dispose();
+    return previewImg;
+  }
+
+  /**
+   * Reads the undecoded cover, only the cover entry of the book. Books the
+   * streaming extractor cannot make sense of are opened with epublib.
+   *
+   * @return the cover or <code>null</code> if the book has none
+   */
+  static byte[] readCoverData(File bookFile) throws IOException {
+    long t0 = System.nanoTime();
+    try {
+      byte[] cover = CoverExtractor.readCover(bookFile);
+      if (cover != null) {
+        LOG.debug("Extracted cover of {} in {} us", bookFile, (System.nanoTime() - t0) / 1000);
+        return cover;
+      }
+    } catch (IOException e) {
+      LOG.debug("Streaming cover extraction failed for {}", bookFile, e);
+    }
+
+    // open eBook and extract cover image
+    try (InputStream is = new FileInputStream(bookFile)) {
+      EpubReader bookReader = new EpubReader();
+      Book book = bookReader.readEpub(is);
+      Resource coverResource = book.getCoverImage();
+      if (coverResource == null) {
+        return null;
+      }
+      byte[] cover = coverResource.getData();
+      LOG.debug("Extracted cover of {} with epublib in {} us", bookFile, (System.nanoTime() - t0) / 1000);
+      return cover;
+    }
+  }
+
+  /**
+   * @return digest of the cover and of the settings its previews are made
+   *         with, so changed settings do not reuse old previews
+   */
+  private String coverHash(byte[] cover) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(cover);
+      md.update((Arrays.toString(heights) + jpegQuality).getBytes(StandardCharsets.US_ASCII));
+      byte[] d = md.digest();
+      StringBuilder sb = new StringBuilder(32);
+      for (int i = 0; i < 16; i++) {
+        sb.append(Character.forDigit((d[i] >> 4) & 0xf, 16)).append(Character.forDigit(d[i] & 0xf, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static byte[] encode(BufferedImage img, String format, float quality) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+    if ("jpg".equals(format)) {
+      writeJpeg(img, quality, out);
+    } else if (!ImageIO.write(img, format, out)) {
+      throw new IOException("No image writer for " + format);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @param output a file or an output stream
+   */
+  static void writeJpeg(BufferedImage img, float quality, Object output) throws IOException {
+    if (img.getType() != BufferedImage.TYPE_INT_RGB && img.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+      // JPEG has no alpha, transparent parts become white
+      BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = rgb.createGraphics();
+      g.drawImage(img, 0, 0, Color.WHITE, null);
+      g.dispose();
+      img = rgb;
+    }
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    try (ImageOutputStream out = ImageIO.createImageOutputStream(output)) {
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(quality);
+      writer.setOutput(out);
+      writer.write(null, new IIOImage(img, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+  }
+}
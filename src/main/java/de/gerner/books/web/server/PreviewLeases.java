@@ -0,0 +1,363 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Generation leases for previews in a cache folder shared by several server
+ * processes, so a cover is generated by one of them while the others wait
+ * for its result.
+ * <p>
+ * A lease is an exclusive {@link FileLock} on one of a fixed number of lock
+ * files below <code>.leases/</code> of the cache, chosen by the hash of the
+ * preview name. The operating system drops the lock of a process that dies.
+ * A holder which hangs is recognized by the age of the lock file, which is
+ * touched when the lease is taken and {@link Lease#renew() renewed} by the
+ * generating job between its steps: a file untouched for
+ * <code>lease-timeout</code> is renamed away and a new one takes its place.
+ * Lock files are otherwise never deleted, so all processes always lock the
+ * same file.
+ * <p>
+ * The book catalog and the change journal are written by every process on
+ * its own; startup fails if either still lies in the shared cache.
+ *
+ * @author thomas
+ *
+ */
+@Component
+public class PreviewLeases
+{
+  private static final Logger LOG = LoggerFactory.getLogger(PreviewLeases.class);
+
+  static final String LEASE_DIR = ".leases";
+
+  @Value("${bookserver.preview.shared:false}")
+  private boolean enabled;
+
+  @Value("${bookserver.preview.cache}")
+  private String imgRoot;
+
+  @Value("${bookserver.preview.lease-timeout:60000}")
+  private long leaseTimeout;
+
+  @Value("${bookserver.preview.lease-poll-interval:100}")
+  private long pollInterval;
+
+  @Value("${bookserver.preview.lease-max-wait:120000}")
+  private long maxWait;
+
+  @Value("${bookserver.preview.lease-stripes:256}")
+  private int stripes;
+
+  @Value("${bookserver.catalog.file:${bookserver.preview.cache}/catalog.dat}")
+  private String catalogFile;
+
+  @Value("${bookserver.changes.file:${bookserver.preview.cache}/changes.dat}")
+  private String changesFile;
+
+  @Autowired
+  private BooksMetrics metrics;
+
+  private File leaseDir;
+
+  private final ConcurrentHashMap<Integer, Stripe> stripeFiles = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    checkOwnFile("bookserver.catalog.file", catalogFile);
+    checkOwnFile("bookserver.changes.file", changesFile);
+    leaseDir = new File(imgRoot, LEASE_DIR);
+    leaseDir.mkdirs();
+    LOG.info("Sharing previews below {} with other servers, leases expire after {} ms", imgRoot, leaseTimeout);
+  }
+
+  /**
+   * Rejects a file of this process below the shared cache, where the other
+   * processes would append to and rewrite it as well.
+   */
+  private void checkOwnFile(String property, String file) {
+    Path root = Path.of(imgRoot).toAbsolutePath().normalize();
+    if (Path.of(file).toAbsolutePath().normalize().startsWith(root)) {
+      throw new IllegalStateException(property + " " + file
+          + " lies in the shared preview cache, every server needs its own");
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the cache is shared with other processes
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return ms to wait before trying to take a busy lease again
+   */
+  public long getPollInterval() {
+    return pollInterval;
+  }
+
+  /**
+   * @return ms a job waits for the lease of another process before it gives
+   *         up
+   */
+  public long getMaxWait() {
+    return maxWait;
+  }
+
+  /**
+   * Takes the lease of a preview if no other process or thread holds it.
+   * An expired lease is broken.
+   *
+   * @return the lease, to be closed when the preview is stored, or
+   *         <code>null</code> if the lease is held
+   */
+  public Lease tryAcquire(String name) throws IOException {
+    int index = Math.floorMod(name.hashCode(), stripes);
+    Stripe stripe = stripeFiles.computeIfAbsent(index,
+        i -> new Stripe(new File(leaseDir, "lease-" + i + ".lock").toPath()));
+    synchronized (stripe) {
+      if (stripe.lock != null) {
+        // held by another thread of this process
+        return null;
+      }
+      for (int attempt = 0; attempt < 3; attempt++) {
+        stripe.open();
+        FileLock lock = stripe.channel.tryLock();
+        if (lock == null) {
+          if (!breakExpired(stripe.path)) {
+            return null;
+          }
+          continue;
+        }
+        if (!stripe.key.equals(fileKey(stripe.path))) {
+          // the file was replaced after an expiry, the lock is on the old one
+          lock.release();
+          stripe.close();
+          continue;
+        }
+        stripe.touch();
+        stripe.lock = lock;
+        metrics.previewLeaseAcquired();
+        return new Lease(stripe);
+      }
+      return null;
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    for (Stripe s : stripeFiles.values()) {
+      synchronized (s) {
+        s.close();
+      }
+    }
+  }
+
+  /**
+   * Renames the lock file away if it was not touched within the lease
+   * timeout. Only one process succeeds in renaming it.
+   *
+   * @return <code>true</code> if the lease was broken
+   */
+  private boolean breakExpired(Path path) throws IOException {
+    long age;
+    try {
+      age = System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis();
+    } catch (NoSuchFileException e) {
+      return true;
+    }
+    if (age < leaseTimeout) {
+      return false;
+    }
+    Path expired = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + ".expired");
+    try {
+      Files.move(path, expired, StandardCopyOption.ATOMIC_MOVE);
+    } catch (NoSuchFileException e) {
+      // another process broke it first
+      return true;
+    }
+    Files.delete(expired);
+    LOG.warn("Broke lease {} held for {} ms", path.getFileName(), age);
+    metrics.previewLeaseExpired();
+    return true;
+  }
+
+  private static Object fileKey(Path path) throws IOException {
+    try {
+      BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      // without file keys the creation time tells replaced files apart
+      return Objects.requireNonNullElse(attrs.fileKey(), attrs.creationTime());
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /**
+   * One lock file with the channel this process locks it through. POSIX
+   * drops all locks of a process on a file when any descriptor of it is
+   * closed, so the channel stays open and the file is opened by no one else
+   * in this process.
+   */
+  private static final class Stripe
+  {
+    private final Path path;
+
+    private FileChannel channel;
+
+    /** the file the channel was opened on */
+    private Object key;
+
+    private FileLock lock;
+
+    Stripe(Path path) {
+      this.path = path;
+    }
+
+    /**
+     * Opens the lock file unless the channel is open on the file currently
+     * at the path.
+     */
+    void open() throws IOException {
+      if (channel != null && key.equals(fileKey(path))) {
+        return;
+      }
+      close();
+      while (true) {
+        try {
+          Files.createFile(path);
+        } catch (FileAlreadyExistsException e) {
+          // the usual case
+        }
+        Object before = fileKey(path);
+        FileChannel c;
+        try {
+          c = FileChannel.open(path, StandardOpenOption.WRITE);
+        } catch (NoSuchFileException e) {
+          continue;
+        }
+        // unchanged key, the channel is open on the file at the path
+        if (before != null && before.equals(fileKey(path))) {
+          channel = c;
+          key = before;
+          return;
+        }
+        c.close();
+      }
+    }
+
+    /**
+     * Writes the time to the locked file, which updates the modification
+     * time the expiry is judged by.
+     */
+    void touch() throws IOException {
+      channel.write(ByteBuffer.allocate(8).putLong(0, System.currentTimeMillis()), 0);
+    }
+
+    void close() {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          LOG.debug("Failed closing {}", path, e);
+        }
+        channel = null;
+        key = null;
+      }
+    }
+  }
+
+  /**
+   * A held lease, closing it releases the lock.
+   */
+  public static final class Lease implements AutoCloseable
+  {
+    private final Stripe stripe;
+
+    private Lease(Stripe stripe) {
+      this.stripe = stripe;
+    }
+
+    /**
+     * Touches the lock file, so the lease does not expire while the holder
+     * makes progress. To be called at least once per
+     * <code>lease-timeout</code>.
+     */
+    public void renew() {
+      synchronized (stripe) {
+        if (stripe.lock != null) {
+          try {
+            stripe.touch();
+          } catch (IOException e) {
+            LOG.warn("Failed renewing lease {}", stripe.path, e);
+          }
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (stripe) {
+        try {
+          stripe.lock.release();
+        } finally {
+          stripe.lock = null;
+        }
+      }
+    }
+  }
+}
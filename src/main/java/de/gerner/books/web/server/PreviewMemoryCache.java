@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Memory tier in front of the preview cache folder. Keeps the encoded
+ * preview images in a size bounded LRU, optionally in direct buffers outside
+ * the Java heap. An entry is only valid for the modification time of the
+ * book it was created from.
+ *
+ * @author thomas
+ *
+ */
+@Service
+public class PreviewMemoryCache implements MeterBinder
+{
+  /** rough bookkeeping overhead of an entry */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  @Value("${bookserver.preview.memory-cache.size:16777216}")
+  private long maxBytes;
+
+  @Value("${bookserver.preview.memory-cache.off-heap:false}")
+  private boolean offHeap;
+
+  private final LinkedHashMap<String, Preview> previews = new LinkedHashMap<>(256, 0.75f, true);
+
+  private long usedBytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * @param key path of the preview image
+   * @param bookLastModified current modification time of the book
+   * @return the cached preview or <code>null</code> if it is not cached or
+   *         was made from an older version of the book
+   */
+  public synchronized Preview get(String key, long bookLastModified) {
+    Preview p = previews.get(key);
+    if (p == null) {
+      misses++;
+      return null;
+    }
+    if (p.getBookLastModified() != bookLastModified) {
+      remove(key);
+      misses++;
+      return null;
+    }
+    hits++;
+    return p;
+  }
+
+  /**
+   * Caches a preview, evicting the least recently used ones when the budget
+   * is exceeded.
+   */
+  public Preview put(String key, long bookLastModified, byte[] data) {
+    ByteBuffer buffer;
+    if (offHeap) {
+      buffer = ByteBuffer.allocateDirect(data.length);
+      buffer.put(data).flip();
+    } else {
+      buffer = ByteBuffer.wrap(data);
+    }
+    Preview p = new Preview(buffer, bookLastModified);
+    long size = data.length + key.length() * 2L + ENTRY_OVERHEAD;
+    if (size > maxBytes) {
+      return p;
+    }
+    synchronized (this) {
+      remove(key);
+      previews.put(key, p);
+      usedBytes += size;
+      Iterator<Map.Entry<String, Preview>> it = previews.entrySet().iterator();
+      while (usedBytes > maxBytes && it.hasNext()) {
+        Map.Entry<String, Preview> eldest = it.next();
+        it.remove();
+        usedBytes -= sizeOf(eldest.getKey(), eldest.getValue());
+        evictions++;
+      }
+    }
+    return p;
+  }
+
+  public synchronized void invalidate(String key) {
+    remove(key);
+  }
+
+  private void remove(String key) {
+    Preview old = previews.remove(key);
+    if (old != null) {
+      usedBytes -= sizeOf(key, old);
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("bookserver.preview.memory-cache.hits", this, PreviewMemoryCache::getHits)
+        .register(registry);
+    FunctionCounter.builder("bookserver.preview.memory-cache.misses", this, PreviewMemoryCache::getMisses)
+        .register(registry);
+    FunctionCounter.builder("bookserver.preview.memory-cache.evictions", this, PreviewMemoryCache::getEvictions)
+        .register(registry);
+    Gauge.builder("bookserver.preview.memory-cache.used", this, PreviewMemoryCache::getUsedBytes)
+        .baseUnit("bytes")
+        .register(registry);
+    Gauge.builder("bookserver.preview.memory-cache.size", this, PreviewMemoryCache::getSize)
+        .register(registry);
+  }
+
+  private static long sizeOf(String key, Preview p) {
+    return p.getSize() + key.length() * 2L + ENTRY_OVERHEAD;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  public synchronized int getSize() {
+    return previews.size();
+  }
+
+  /**
+   * An encoded preview image.
+   */
+  public static class Preview {
+
+    private final ByteBuffer data;
+    private final long bookLastModified;
+
+    Preview(ByteBuffer data, long bookLastModified) {
+      this.data = data;
+      this.bookLastModified = bookLastModified;
+    }
+
+    public ByteBufferResource getResource() {
+      return new ByteBufferResource(data, "preview");
+    }
+
+    public int getSize() {
+      return data.remaining();
+    }
+
+    public long getBookLastModified() {
+      return bookLastModified;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Where the encoded previews are kept. A preview is named like its book
+ * relative to the library root without the <code>.epub</code> extension and
+ * consists of one image per configured height and format. Previews are valid
+ * for the versions of their books which are not newer than them.
+ * <p>
+ * <code>bookserver.preview.store</code> selects the implementation:
+ * <code>tree</code> mirrors the library in the cache folder, <code>cas</code>
+ * keeps the images once per cover in a few segment files.
+ *
+ * @author thomas
+ *
+ */
+public interface PreviewStore extends Closeable
+{
+  /**
+   * @return the key of a variant in the maps passed to {@link #put}
+   */
+  static String variantKey(int height, String format) {
+    return height + "." + format;
+  }
+
+  /**
+   * @return <code>true</code> if all variants of the preview were made from
+   *         this version of the book
+   */
+  boolean isUpToDate(String name, long bookLastModified);
+
+  /**
+   * @return <code>true</code> if creating the preview from this version of the
+   *         book failed before
+   */
+  boolean hasFailed(String name, long bookLastModified);
+
+  /**
+   * Remembers that no preview could be made from the current version of the
+   * book.
+   */
+  void markFailed(String name) throws IOException;
+
+  /**
+   * Makes the previews stored for a cover the previews of a book.
+   *
+   * @param coverHash digest of the cover and the preview settings
+   * @return <code>false</code> if there are none, the previews must then be
+   *         generated and {@link #put}
+   */
+  boolean link(String name, String coverHash) throws IOException;
+
+  /**
+   * Stores the previews of a book.
+   *
+   * @param variants the encoded images by {@link #variantKey}
+   */
+  void put(String name, String coverHash, Map<String, byte[]> variants) throws IOException;
+
+  /**
+   * @return the encoded image or <code>null</code> if there is none made from
+   *         this version of the book
+   */
+  byte[] read(String name, long bookLastModified, int height, String format) throws IOException;
+
+  /**
+   * Releases the files of the store.
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,307 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Creates all missing or outdated previews in the background.
+ * <p>
+ * The books are taken from the {@link ShelfIndex} and worked on by a
+ * fork/join pool of low priority threads sized to a fraction of the cores.
+ * Progress is only kept on disk by the previews and failure markers
+ * themselves, so an interrupted run simply continues where it stopped when
+ * started again.
+ *
+ * @author thomas
+ *
+ */
+@Service
+public class PreviewWarmer
+{
+  private static final Logger LOG = LoggerFactory.getLogger(PreviewWarmer.class);
+
+  @Value("${bookserver.prewarm.on-startup:false}")
+  private boolean onStartup;
+
+  @Value("${bookserver.prewarm.cpu-fraction:0.5}")
+  private double cpuFraction;
+
+  @Autowired
+  private ShelfIndex shelfIndex;
+
+  @Autowired
+  private PreviewGenerator previewGenerator;
+
+  private ExecutorService runner;
+  private volatile Run current;
+  private volatile Run last;
+
+  @PostConstruct
+  public void init() {
+    runner = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "prewarm");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  @PreDestroy
+  public void stop() {
+    cancel();
+    runner.shutdownNow();
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void warmOnStartup() {
+    if (onStartup) {
+      start();
+    }
+  }
+
+  @Scheduled(cron = "${bookserver.prewarm.cron:-}")
+  public void warmScheduled() {
+    start();
+  }
+
+  /**
+   * Starts a run unless one is active.
+   *
+   * @return <code>false</code> if a run is already active
+   */
+  public synchronized boolean start() {
+    if (current != null) {
+      return false;
+    }
+    final Run run = new Run();
+    current = run;
+    runner.execute(() -> {
+      try {
+        warm(run);
+      } finally {
+        run.finished = System.currentTimeMillis();
+        synchronized (PreviewWarmer.this) {
+          last = run;
+          current = null;
+        }
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Stops the active run, it can be resumed by starting a new one.
+   */
+  public synchronized void cancel() {
+    if (current != null) {
+      current.cancelled = true;
+    }
+  }
+
+  /**
+   * @return state of the active run or of the last finished one, <code>null</code>
+   *         if there was none yet
+   */
+  public Status getStatus() {
+    Run run = current;
+    if (run == null) {
+      run = last;
+    }
+    return run == null ? null : new Status(run, run == current);
+  }
+
+  private void warm(Run run) {
+    List<String[]> books = new ArrayList<>();
+    File bRoot = shelfIndex.getRoot().toFile();
+    for (String shelfPath : shelfIndex.getShelfPaths()) {
+      ShelfIndex.Shelf shelf = shelfIndex.getShelf(shelfPath);
+      if (shelf == null) {
+        continue;
+      }
+      for (ShelfIndex.Entry e : shelf.getEntries()) {
+        String name = e.getName();
+        if (!e.isDirectory() && name.endsWith(".epub")) {
+          String bookPath = shelfPath.isEmpty() ? name : shelfPath + "/" + name;
+          books.add(new String[] { bookPath, PreviewGenerator.previewName(bookPath) });
+        }
+      }
+    }
+    run.total = books.size();
+    LOG.info("Pre-warming previews of {} books", run.total);
+
+    int parallelism = Math.max(1, (int) (Runtime.getRuntime().availableProcessors() * cpuFraction));
+    ForkJoinPool pool = new ForkJoinPool(parallelism, p -> {
+      ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+      t.setName("prewarm-" + t.getPoolIndex());
+      t.setPriority(Thread.MIN_PRIORITY);
+      t.setDaemon(true);
+      return t;
+    }, null, false);
+    try {
+      // parallel streams use the pool they are started from
+      pool.submit(() -> books.parallelStream().forEach(b -> {
+        if (run.cancelled) {
+          return;
+        }
+        File bookFile = new File(bRoot, b[0]);
+        if (previewGenerator.isUpToDate(bookFile, b[1])) {
+          run.upToDate.incrementAndGet();
+        } else if (previewGenerator.hasFailed(bookFile, b[1])) {
+          run.skipped.incrementAndGet();
+        } else if (previewGenerator.generate(bookFile, b[1])) {
+          run.generated.incrementAndGet();
+        } else {
+          run.failed.incrementAndGet();
+        }
+      })).get();
+    } catch (InterruptedException e) {
+      run.cancelled = true;
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOG.warn("Pre-warming previews failed", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    LOG.info("Pre-warming {}: generated {}, failed {}, skipped {}, up to date {} previews",
+        run.cancelled ? "cancelled" : "finished", run.generated, run.failed, run.skipped, run.upToDate);
+  }
+
+  private static class Run {
+
+    final long started = System.currentTimeMillis();
+    volatile long finished;
+    volatile int total;
+    volatile boolean cancelled;
+    final AtomicInteger generated = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    final AtomicInteger skipped = new AtomicInteger();
+    final AtomicInteger upToDate = new AtomicInteger();
+  }
+
+  /**
+   * Snapshot of a pre-warm run.
+   */
+  public static class Status {
+
+    private final boolean running;
+    private final boolean cancelled;
+    private final long started;
+    private final long finished;
+    private final int total;
+    private final int generated;
+    private final int failed;
+    private final int skipped;
+    private final int upToDate;
+
+    Status(Run run, boolean running) {
+      this.running = running;
+      this.cancelled = run.cancelled;
+      this.started = run.started;
+      this.finished = run.finished;
+      this.total = run.total;
+      this.generated = run.generated.get();
+      this.failed = run.failed.get();
+      this.skipped = run.skipped.get();
+      this.upToDate = run.upToDate.get();
+    }
+
+    public boolean isRunning() {
+      return running;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    public long getStarted() {
+      return started;
+    }
+
+    public long getFinished() {
+      return finished;
+    }
+
+    public int getTotal() {
+      return total;
+    }
+
+    public int getGenerated() {
+      return generated;
+    }
+
+    public int getFailed() {
+      return failed;
+    }
+
+    public int getSkipped() {
+      return skipped;
+    }
+
+    public int getUpToDate() {
+      return upToDate;
+    }
+
+    /**
+     * @return books checked so far
+     */
+    public int getDone() {
+      return generated + failed + skipped + upToDate;
+    }
+
+    /**
+     * @return generated and failed previews per second
+     */
+    public double getBooksPerSecond() {
+      long end = finished > 0 ? finished : System.currentTimeMillis();
+      long millis = Math.max(1, end - started);
+      return (generated + failed) * 1000.0 / millis;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Status and control of the preview pre-warming.
+ *
+ * @author thomas
+ *
+ */
+@Controller
+@RequestMapping(value="/books/api/prewarm")
+public class PrewarmController
+{
+  @Autowired
+  private PreviewWarmer previewWarmer;
+
+  @GetMapping
+  @ResponseBody
+  public ResponseEntity<PreviewWarmer.Status> getStatus() {
+    PreviewWarmer.Status status = previewWarmer.getStatus();
+    if (status == null) {
+      return ResponseEntity.noContent().build();
+    }
+    return ResponseEntity.ok(status);
+  }
+
+  @PostMapping
+  @ResponseBody
+  public ResponseEntity<PreviewWarmer.Status> start() {
+    HttpStatus status = previewWarmer.start() ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT;
+    return ResponseEntity.status(status).body(previewWarmer.getStatus());
+  }
+
+  @DeleteMapping
+  @ResponseBody
+  public ResponseEntity<PreviewWarmer.Status> cancel() {
+    previewWarmer.cancel();
+    return ResponseEntity.accepted().body(previewWarmer.getStatus());
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Shows the books matching a search as a shelf.
+ *
+ * @author thomas
+ *
+ */
+@Controller
+@RequestMapping(value="/books/search")
+public class SearchController
+{
+  @Autowired
+  private SearchIndex searchIndex;
+
+  @Autowired
+  private ShelfIndex shelfIndex;
+
+  @Autowired
+  private BookCatalog bookCatalog;
+
+  @GetMapping
+  public String search(@RequestParam(required=false) String q, @RequestParam(required=false) String page,
+      Model model) {
+    int pageSize = BooksController.NUM_ROWS * BooksController.NUM_COLS;
+    int rqPage = 0;
+    if (page != null && !page.isEmpty()) {
+      try {
+        rqPage = Math.max(0, Integer.parseInt(page) - 1);
+      } catch (NumberFormatException e) {
+        // first page
+      }
+    }
+    String query = q == null ? "" : q.trim();
+    SearchIndex.Result result = searchIndex.search(query, rqPage * pageSize, pageSize);
+
+    model.addAttribute("query", query);
+    model.addAttribute("isSubShelf", true);
+    model.addAttribute("parentShelf", "/books/shelf/");
+    String base = "/books/search?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8) + "&page=";
+    boolean hasPrevPage = rqPage > 0;
+    model.addAttribute("hasPrevPage", hasPrevPage);
+    if (hasPrevPage) {
+      model.addAttribute("prevPage", base + rqPage);
+    }
+    boolean hasNextPage = result.getTotal() > (rqPage + 1) * pageSize;
+    model.addAttribute("hasNextPage", hasNextPage);
+    if (hasNextPage) {
+      model.addAttribute("nextPage", base + (rqPage + 2));
+    }
+
+    List<BooksController.BookCol> bookRows = new ArrayList<>();
+    BooksController.BookCol bookCol = null;
+    for (String path : result.getPaths()) {
+      ShelfIndex.Entry entry = shelfIndex.getEntry(path);
+      if (entry == null) {
+        continue;
+      }
+      if (bookCol == null || bookCol.getCols().size() == BooksController.NUM_COLS) {
+        bookCol = new BooksController.BookCol();
+        bookRows.add(bookCol);
+      }
+      int slash = path.lastIndexOf('/');
+      String shelfPath = slash == -1 ? "" : path.substring(0, slash);
+      bookCol.getCols().add(new BooksController.Book(shelfPath, entry, bookCatalog.get(path, entry)));
+    }
+    model.addAttribute("rows", bookRows);
+    return "books";
+  }
+}
@@ -0,0 +1,361 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import jakarta.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * In-memory inverted index over the file names and the catalog metadata of
+ * all books.
+ * <p>
+ * Books get increasing int ids, so every posting list is an ascending
+ * <code>int[]</code> of ids with the summed field weights alongside. Removed
+ * books are only marked deleted and dropped by a rebuild once they make up
+ * half of the index. All query terms must match, each one exactly or as a
+ * prefix; hits are ranked by field weight times inverse document frequency.
+ *
+ * @author thomas
+ *
+ */
+@Service
+public class SearchIndex implements BookCatalog.Listener
+{
+  private static final Logger LOG = LoggerFactory.getLogger(SearchIndex.class);
+
+  private static final int TITLE_WEIGHT = 4;
+  private static final int AUTHOR_WEIGHT = 3;
+  private static final int SERIES_WEIGHT = 2;
+  private static final int NAME_WEIGHT = 1;
+
+  /** maximum number of index terms a query term expands to as prefix */
+  private static final int MAX_EXPANSIONS = 64;
+
+  private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+  private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+  @Autowired
+  private BookCatalog bookCatalog;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final TreeMap<String, Postings> terms = new TreeMap<>();
+  private final Map<String, Integer> ids = new HashMap<>();
+  private final List<String> docs = new ArrayList<>();
+  private final Map<String, BookMetadata> metadata = new HashMap<>();
+  private int deleted;
+
+  @PostConstruct
+  public void start() {
+    bookCatalog.addListener(this);
+    long t0 = System.currentTimeMillis();
+    for (Map.Entry<String, BookMetadata> me : bookCatalog.getAll().entrySet()) {
+      put(me.getKey(), me.getValue());
+    }
+    LOG.info("Indexed {} books with {} terms for search in {} ms", size(), termCount(),
+        System.currentTimeMillis() - t0);
+  }
+
+  @Override
+  public void bookChanged(String path, BookMetadata md) {
+    if (md == null) {
+      remove(path);
+    } else {
+      put(path, md);
+    }
+  }
+
+  /**
+   * Adds or replaces a book.
+   */
+  public void put(String path, BookMetadata md) {
+    lock.writeLock().lock();
+    try {
+      delete(path);
+      if (deleted > 1000 && deleted > docs.size() / 2) {
+        rebuild();
+      }
+      int id = docs.size();
+      docs.add(path);
+      ids.put(path, id);
+      metadata.put(path, md);
+      int slash = path.lastIndexOf('/');
+      String name = path.substring(slash + 1);
+      if (name.endsWith(".epub")) {
+        name = name.substring(0, name.length() - 5);
+      }
+      addTerms(id, name, NAME_WEIGHT);
+      if (md != null) {
+        addTerms(id, md.getTitle(), TITLE_WEIGHT);
+        for (String author : md.getAuthors()) {
+          addTerms(id, author, AUTHOR_WEIGHT);
+        }
+        addTerms(id, md.getSeries(), SERIES_WEIGHT);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public void remove(String path) {
+    lock.writeLock().lock();
+    try {
+      delete(path);
+      if (deleted > 1000 && deleted > docs.size() / 2) {
+        rebuild();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @param query the search terms
+   * @param offset index of the first hit to return
+   * @param limit maximum number of hits to return
+   * @return the ranked hits
+   */
+  public Result search(String query, int offset, int limit) {
+    List<String> qterms = tokenize(query);
+    if (qterms.isEmpty()) {
+      return new Result(0, Collections.<String>emptyList());
+    }
+    lock.readLock().lock();
+    try {
+      int n = docs.size();
+      float[] scores = new float[n];
+      byte[] matched = new byte[n];
+      int live = n - deleted;
+      for (int t = 0; t < qterms.size() && t < Byte.MAX_VALUE; t++) {
+        String term = qterms.get(t);
+        Postings exact = terms.get(term);
+        if (exact != null) {
+          score(exact, 1.0f, live, t, scores, matched);
+        }
+        int expansions = 0;
+        for (Map.Entry<String, Postings> me : prefixed(term).entrySet()) {
+          if (me.getKey().length() == term.length()) {
+            continue;
+          }
+          score(me.getValue(), 0.5f, live, t, scores, matched);
+          if (++expansions == MAX_EXPANSIONS) {
+            break;
+          }
+        }
+      }
+
+      int required = Math.min(qterms.size(), Byte.MAX_VALUE);
+      int hitCount = 0;
+      int[] hits = new int[64];
+      for (int id = 0; id < n; id++) {
+        if (matched[id] == required && docs.get(id) != null) {
+          if (hitCount == hits.length) {
+            hits = Arrays.copyOf(hits, hitCount * 2);
+          }
+          hits[hitCount++] = id;
+        }
+      }
+      Integer[] sorted = new Integer[hitCount];
+      for (int i = 0; i < hitCount; i++) {
+        sorted[i] = hits[i];
+      }
+      Arrays.sort(sorted, (a, b) -> {
+        int c = Float.compare(scores[b], scores[a]);
+        return c != 0 ? c : docs.get(a).compareTo(docs.get(b));
+      });
+      List<String> page = new ArrayList<>();
+      for (int i = Math.max(0, offset); i < hitCount && page.size() < limit; i++) {
+        page.add(docs.get(sorted[i]));
+      }
+      return new Result(hitCount, page);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return number of indexed books
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return docs.size() - deleted;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int termCount() {
+    lock.readLock().lock();
+    try {
+      return terms.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Splits a text into lower case terms without diacritics.
+   */
+  static List<String> tokenize(String text) {
+    List<String> tokens = new ArrayList<>();
+    if (text == null) {
+      return tokens;
+    }
+    String normalized = Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+    normalized = MARKS.matcher(normalized).replaceAll("");
+    for (String token : SEPARATORS.split(normalized)) {
+      if (!token.isEmpty()) {
+        tokens.add(token);
+      }
+    }
+    return tokens;
+  }
+
+  private void score(Postings p, float boost, int live, int term, float[] scores, byte[] matched) {
+    float idf = (float) Math.log(1.0 + (double) live / p.size);
+    for (int i = 0; i < p.size; i++) {
+      int id = p.docs[i];
+      if (matched[id] == term) {
+        matched[id]++;
+      } else if (matched[id] != term + 1) {
+        // missed an earlier term, can never be a hit
+        continue;
+      }
+      scores[id] += boost * p.weights[i] * idf;
+    }
+  }
+
+  private SortedMap<String, Postings> prefixed(String prefix) {
+    return terms.subMap(prefix, prefix + Character.MAX_VALUE);
+  }
+
+  private void addTerms(int id, String text, int weight) {
+    for (String token : tokenize(text)) {
+      Postings p = terms.get(token);
+      if (p == null) {
+        p = new Postings();
+        terms.put(token, p);
+      }
+      p.add(id, weight);
+    }
+  }
+
+  private void delete(String path) {
+    Integer id = ids.remove(path);
+    if (id != null) {
+      docs.set(id, null);
+      metadata.remove(path);
+      deleted++;
+    }
+  }
+
+  private void rebuild() {
+    Map<String, BookMetadata> live = new HashMap<>(metadata);
+    terms.clear();
+    ids.clear();
+    docs.clear();
+    metadata.clear();
+    deleted = 0;
+    for (Map.Entry<String, BookMetadata> me : live.entrySet()) {
+      put(me.getKey(), me.getValue());
+    }
+    LOG.debug("Rebuilt search index with {} books", docs.size());
+  }
+
+  /**
+   * Ascending book ids with the summed weights of the fields containing the term.
+   */
+  private static class Postings {
+
+    int[] docs = new int[2];
+    int[] weights = new int[2];
+    int size;
+
+    void add(int id, int weight) {
+      if (size > 0 && docs[size - 1] == id) {
+        weights[size - 1] += weight;
+        return;
+      }
+      if (size == docs.length) {
+        docs = Arrays.copyOf(docs, size * 2);
+        weights = Arrays.copyOf(weights, size * 2);
+      }
+      docs[size] = id;
+      weights[size] = weight;
+      size++;
+    }
+  }
+
+  /**
+   * A page of hits.
+   */
+  public static class Result {
+
+    private final int total;
+    private final List<String> paths;
+
+    Result(int total, List<String> paths) {
+      this.total = total;
+      this.paths = paths;
+    }
+
+    /**
+     * @return number of all hits
+     */
+    public int getTotal() {
+      return total;
+    }
+
+    /**
+     * @return paths of the books on this page, relative to the books root
+     */
+    public List<String> getPaths() {
+      return paths;
+    }
+  }
+}
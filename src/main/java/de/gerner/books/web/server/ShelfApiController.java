@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.util.UriUtils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * JSON listing of a shelf for scripts and other front ends. Entries come in
+ * the order of the shelf pages. A page ends with the opaque cursor of its
+ * last entry, which holds the entry's sort key; the next page starts after
+ * that key, found by binary search, so books added or removed in between
+ * neither skip nor repeat entries. The entries are written one by one with a
+ * streaming generator, large pages need no extra memory.
+ *
+ * @author thomas
+ *
+ */
+@Controller
+@RequestMapping(value="/books/api/shelf")
+public class ShelfApiController
+{
+  private static final String API_ROOT = "/books/api/shelf/";
+
+  @Value("${bookserver.api.page-size:100}")
+  private int pageSize;
+
+  @Value("${bookserver.api.max-page-size:10000}")
+  private int maxPageSize;
+
+  @Autowired
+  private ShelfIndex shelfIndex;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @GetMapping(path="/**")
+  public void listShelf(HttpServletRequest req, HttpServletResponse rsp, @RequestParam(required=false) String cursor,
+      @RequestParam(required=false) Integer limit) throws IOException {
+
+    String path = ShelfIndex.normalize(req.getServletPath().substring(API_ROOT.length() - 1));
+    ShelfIndex.Shelf shelf = path == null ? null : shelfIndex.getShelf(path);
+    if (shelf == null) {
+      rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    List<ShelfIndex.Entry> entries = shelf.getEntries();
+    int start = 0;
+    if (cursor != null) {
+      ShelfIndex.Entry last = decodeCursor(cursor);
+      if (last == null) {
+        rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+        return;
+      }
+      int i = Collections.binarySearch(entries, last, ShelfIndex.ENTRY_ORDER);
+      start = i >= 0 ? i + 1 : -i - 1;
+    }
+    int count = limit == null ? pageSize : Math.max(1, Math.min(limit, maxPageSize));
+    int end = (int) Math.min(entries.size(), (long) start + count);
+
+    String eTag = "W/\"" + shelf.getContentHash() + "-" + start + "-" + end + "\"";
+    if (new ServletWebRequest(req, rsp).checkNotModified(eTag)) {
+      return;
+    }
+    rsp.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    rsp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    rsp.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+
+    String base = path.isEmpty() ? "" : path + "/";
+    try (JsonGenerator g = objectMapper.getFactory().createGenerator(rsp.getOutputStream(), JsonEncoding.UTF8)) {
+      g.writeStartObject();
+      g.writeStringField("path", path);
+      if (!path.isEmpty()) {
+        int slash = path.lastIndexOf('/');
+        g.writeStringField("parent", API_ROOT + encodePath(slash == -1 ? "" : path.substring(0, slash)));
+      }
+      g.writeNumberField("total", entries.size());
+      g.writeArrayFieldStart("entries");
+      for (int i = start; i < end; i++) {
+        writeEntry(g, base, entries.get(i));
+      }
+      g.writeEndArray();
+      if (end < entries.size()) {
+        g.writeStringField("next", encodeCursor(entries.get(end - 1)));
+      } else {
+        g.writeNullField("next");
+      }
+      g.writeEndObject();
+    }
+  }
+
+  private static void writeEntry(JsonGenerator g, String base, ShelfIndex.Entry e) throws IOException {
+    String name = e.getName();
+    String href = encodePath(base + name);
+    g.writeStartObject();
+    g.writeStringField("name", name);
+    g.writeNumberField("mtime", e.getLastModified());
+    if (e.isDirectory()) {
+      g.writeStringField("type", "folder");
+      g.writeStringField("href", API_ROOT + href);
+    } else {
+      boolean book = name.endsWith(".epub");
+      g.writeStringField("type", book ? "book" : "file");
+      g.writeNumberField("size", e.getLength());
+      g.writeStringField("href", "/books/download/" + href);
+      if (book) {
+        g.writeStringField("preview", "/books/image/" + href.substring(0, href.length() - 5));
+      }
+    }
+    g.writeEndObject();
+  }
+
+  /**
+   * @return the sort key of the entry, folder flag, modification time and
+   *         name, encoded base64url
+   */
+  static String encodeCursor(ShelfIndex.Entry e) {
+    byte[] name = e.getName().getBytes(StandardCharsets.UTF_8);
+    ByteBuffer b = ByteBuffer.allocate(9 + name.length);
+    b.put((byte) (e.isDirectory() ? 1 : 0)).putLong(e.getLastModified()).put(name);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(b.array());
+  }
+
+  /**
+   * @return an entry with the sort key of the cursor or <code>null</code> if
+   *         it is not one
+   */
+  static ShelfIndex.Entry decodeCursor(String cursor) {
+    byte[] data;
+    try {
+      data = Base64.getUrlDecoder().decode(cursor);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (data.length < 10 || data[0] > 1 || data[0] < 0) {
+      return null;
+    }
+    ByteBuffer b = ByteBuffer.wrap(data);
+    boolean directory = b.get() == 1;
+    long lastModified = b.getLong();
+    return new ShelfIndex.Entry(new String(data, 9, data.length - 9, StandardCharsets.UTF_8), directory,
+        lastModified, 0);
+  }
+
+  private static String encodePath(String path) {
+    return UriUtils.encodePath(path, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,642 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * In-memory index of the book shelves below <code>bookserver.ebooks.root</code>.
+ * <p>
+ * The tree is scanned once at startup. Each folder keeps its children sorted
+ * (folders first, latest modified first), so a shelf page is a plain slice of
+ * the list. Folders are kept current by a {@link WatchService} and, for mounts
+ * which do not deliver events, by a periodic rescan.
+ *
+ * @author thomas
+ *
+ */
+@Service
+public class ShelfIndex
+{
+  private static final Logger LOG = LoggerFactory.getLogger(ShelfIndex.class);
+
+  /** time to collect further watch events before the affected folders are rescanned */
+  private static final long WATCH_SETTLE_MILLIS = 500;
+
+  /** sort order of the shelf entries: folders first, latest modified first, then by name */
+  public static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+
+    @Override
+    public int compare(Entry e1, Entry e2) {
+      if (e1.isDirectory() != e2.isDirectory()) {
+        return e1.isDirectory() ? -1 : 1;
+      }
+      int c = Long.compare(e2.getLastModified(), e1.getLastModified());
+      if (c != 0) {
+        return c;
+      }
+      return e1.getName().compareTo(e2.getName());
+    }
+  };
+
+  @Value("${bookserver.ebooks.root}")
+  private String booksRoot;
+
+  @Value("${bookserver.index.watch:true}")
+  private boolean watchEnabled;
+
+  @Value("${bookserver.index.rescan-interval:300}")
+  private long rescanInterval;
+
+  @Autowired
+  private BooksMetrics metrics;
+
+  private final Map<String, Shelf> shelves = new ConcurrentHashMap<>();
+  private final Map<WatchKey, String> watchKeys = new ConcurrentHashMap<>();
+  private final AtomicLong versions = new AtomicLong();
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  private Path root;
+  private WatchService watchService;
+  private Thread watchThread;
+  private ScheduledExecutorService rescanExecutor;
+
+  @PostConstruct
+  public void start() {
+    root = Paths.get(booksRoot).toAbsolutePath().normalize();
+    if (watchEnabled) {
+      try {
+        watchService = root.getFileSystem().newWatchService();
+      } catch (IOException | UnsupportedOperationException e) {
+        LOG.warn("File system watcher not available for {}, relying on periodic rescans", root, e);
+      }
+    }
+
+    long t0 = System.currentTimeMillis();
+    rescanTree("");
+    LOG.info("Indexed {} shelves below {} in {} ms", shelves.size(), root, System.currentTimeMillis() - t0);
+
+    if (watchService != null) {
+      watchThread = new Thread(this::watchLoop, "shelf-watcher");
+      watchThread.setDaemon(true);
+      watchThread.start();
+    }
+    if (rescanInterval > 0) {
+      rescanExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "shelf-rescan");
+        t.setDaemon(true);
+        return t;
+      });
+      rescanExecutor.scheduleWithFixedDelay(() -> rescanTree(""), rescanInterval, rescanInterval, TimeUnit.SECONDS);
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (rescanExecutor != null) {
+      rescanExecutor.shutdownNow();
+    }
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        LOG.debug("Failed closing watch service", e);
+      }
+    }
+  }
+
+  /**
+   * Registers a listener for shelf changes. Shelves indexed before the
+   * registration are not reported, the listener should walk the index once
+   * after registering.
+   */
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  private void fireShelfChanged(Shelf old, Shelf current) {
+    for (Listener l : listeners) {
+      try {
+        l.shelfChanged(old, current);
+      } catch (RuntimeException e) {
+        LOG.warn("Shelf listener {} failed", l, e);
+      }
+    }
+  }
+
+  /**
+   * @param path shelf path relative to the books root, may have leading or trailing slashes
+   * @return the indexed shelf or <code>null</code> if there is no such folder
+   */
+  public Shelf getShelf(String path) {
+    String key = normalize(path);
+    if (key == null) {
+      return null;
+    }
+    return shelves.get(key);
+  }
+
+  /**
+   * @param path file or folder path relative to the books root
+   * @return the indexed entry or <code>null</code> if the index does not know
+   *         the path
+   */
+  public Entry getEntry(String path) {
+    String key = normalize(path);
+    if (key == null || key.isEmpty()) {
+      return null;
+    }
+    int slash = key.lastIndexOf('/');
+    Shelf shelf = shelves.get(slash == -1 ? "" : key.substring(0, slash));
+    return shelf == null ? null : shelf.getEntry(key.substring(slash + 1));
+  }
+
+  /**
+   * @return the paths of all indexed shelves
+   */
+  public Set<String> getShelfPaths() {
+    return Collections.unmodifiableSet(shelves.keySet());
+  }
+
+  /**
+   * @return absolute path of the books root
+   */
+  public Path getRoot() {
+    return root;
+  }
+
+  /**
+   * Normalizes a request path to the key used by the index.
+   *
+   * @param path path relative to the books root
+   * @return path without leading and trailing slashes or <code>null</code> if
+   *         the path tries to leave the books root
+   */
+  public static String normalize(String path) {
+    if (path == null) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder(path.length());
+    for (String segment : path.split("/")) {
+      if (segment.isEmpty() || segment.equals(".")) {
+        continue;
+      }
+      if (segment.equals("..")) {
+        return null;
+      }
+      if (sb.length() > 0) {
+        sb.append('/');
+      }
+      sb.append(segment);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Rescans a folder and all its sub folders.
+   */
+  public synchronized void rescanTree(String path) {
+    Deque<String> todo = new ArrayDeque<>();
+    todo.push(path);
+    while (!todo.isEmpty()) {
+      String current = todo.pop();
+      Shelf shelf = rescanFolder(current);
+      if (shelf != null) {
+        for (Entry e : shelf.getEntries()) {
+          if (e.isDirectory()) {
+            todo.push(child(current, e.getName()));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Re-lists a single folder. Sub folders which are new to the index are
+   * scanned completely, sub folders which vanished are dropped with their
+   * whole sub tree.
+   *
+   * @return the current shelf or <code>null</code> if the folder is gone
+   */
+  synchronized Shelf rescanFolder(String path) {
+    Path dir = path.isEmpty() ? root : root.resolve(path);
+    Shelf old = shelves.get(path);
+    long t0 = System.nanoTime();
+    List<Entry> entries = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+      for (Path p : ds) {
+        Entry e = readEntry(p);
+        if (e != null) {
+          entries.add(e);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      removeTree(path);
+      return null;
+    } catch (IOException e) {
+      if (!Files.isDirectory(dir)) {
+        removeTree(path);
+        return null;
+      }
+      LOG.warn("Failed listing shelf {}", dir, e);
+      return old;
+    }
+    long t1 = System.nanoTime();
+    Collections.sort(entries, ENTRY_ORDER);
+    metrics.shelfScanned(t1 - t0, System.nanoTime() - t1);
+
+    Set<String> oldFolders = new HashSet<>();
+    if (old != null) {
+      if (old.getEntries().equals(entries)) {
+        return old;
+      }
+      for (Entry e : old.getEntries()) {
+        if (e.isDirectory()) {
+          oldFolders.add(e.getName());
+        }
+      }
+    }
+    Shelf shelf = new Shelf(path, entries, versions.incrementAndGet());
+    shelves.put(path, shelf);
+    fireShelfChanged(old, shelf);
+    if (old == null) {
+      register(dir, path);
+    }
+
+    for (Entry e : entries) {
+      if (e.isDirectory() && !oldFolders.remove(e.getName()) && old != null) {
+        rescanTree(child(path, e.getName()));
+      }
+    }
+    for (String gone : oldFolders) {
+      removeTree(child(path, gone));
+    }
+    if (old != null && !path.isEmpty()) {
+      refreshParentEntry(path);
+    }
+    return shelf;
+  }
+
+  /**
+   * Updates the entry of a folder in its parent shelf after the folder itself
+   * changed, the parent does not get an event for that.
+   */
+  private void refreshParentEntry(String path) {
+    int slash = path.lastIndexOf('/');
+    String parentPath = slash == -1 ? "" : path.substring(0, slash);
+    String name = path.substring(slash + 1);
+    Shelf parent = shelves.get(parentPath);
+    if (parent == null) {
+      return;
+    }
+    Entry fresh = readEntry(root.resolve(path));
+    List<Entry> entries = new ArrayList<>(parent.getEntries());
+    boolean changed = false;
+    for (int i = 0; i < entries.size(); i++) {
+      Entry e = entries.get(i);
+      if (e.getName().equals(name)) {
+        if (fresh == null) {
+          entries.remove(i);
+          changed = true;
+        } else if (!fresh.equals(e)) {
+          entries.set(i, fresh);
+          changed = true;
+        }
+        break;
+      }
+    }
+    if (changed) {
+      Collections.sort(entries, ENTRY_ORDER);
+      Shelf shelf = new Shelf(parentPath, entries, versions.incrementAndGet());
+      shelves.put(parentPath, shelf);
+      fireShelfChanged(parent, shelf);
+    }
+  }
+
+  private void removeTree(String path) {
+    String prefix = path + "/";
+    shelves.values().removeIf(shelf -> {
+      String k = shelf.getPath();
+      if (k.equals(path) || path.isEmpty() || k.startsWith(prefix)) {
+        fireShelfChanged(shelf, null);
+        return true;
+      }
+      return false;
+    });
+    watchKeys.entrySet().removeIf(me -> {
+      String k = me.getValue();
+      if (k.equals(path) || path.isEmpty() || k.startsWith(prefix)) {
+        me.getKey().cancel();
+        return true;
+      }
+      return false;
+    });
+  }
+
+  private void register(Path dir, String path) {
+    if (watchService == null) {
+      return;
+    }
+    try {
+      WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+      watchKeys.put(key, path);
+    } catch (IOException e) {
+      LOG.warn("Failed watching shelf {}, relying on periodic rescans", dir, e);
+    }
+  }
+
+  private void watchLoop() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        Set<String> changed = new LinkedHashSet<>();
+        boolean overflow = false;
+        // collect the burst of events a copy or move produces before rescanning
+        while (key != null) {
+          String path = watchKeys.get(key);
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              overflow = true;
+            }
+          }
+          if (path != null) {
+            changed.add(path);
+          }
+          if (!key.reset()) {
+            watchKeys.remove(key);
+          }
+          key = watchService.poll(WATCH_SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        try {
+          if (overflow) {
+            rescanTree("");
+          } else {
+            for (String path : changed) {
+              rescanFolder(path);
+            }
+          }
+        } catch (RuntimeException e) {
+          LOG.warn("Failed updating shelf index", e);
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      LOG.debug("Shelf watcher stopped");
+    }
+  }
+
+  private static Entry readEntry(Path p) {
+    try {
+      BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+      if (!attrs.isDirectory() && !attrs.isRegularFile()) {
+        // dangling symlink or special file, the directory listing did not show them either
+        return null;
+      }
+      return new Entry(p.getFileName().toString(), attrs.isDirectory(),
+          attrs.lastModifiedTime().toMillis(), attrs.isDirectory() ? 0 : attrs.size());
+    } catch (IOException e) {
+      try {
+        // broken symbolic link, list it like File.listFiles() did
+        BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        return new Entry(p.getFileName().toString(), false, attrs.lastModifiedTime().toMillis(), 0);
+      } catch (IOException e2) {
+        return null;
+      }
+    }
+  }
+
+  private static String child(String path, String name) {
+    return path.isEmpty() ? name : path + "/" + name;
+  }
+
+  /**
+   * Receives the changes of the index. It is called by the thread updating
+   * the index and must not block.
+   */
+  public interface Listener {
+
+    /**
+     * @param old the previous state of the shelf, <code>null</code> for a new shelf
+     * @param current the new state of the shelf, <code>null</code> if it was removed
+     */
+    void shelfChanged(Shelf old, Shelf current);
+  }
+
+  /**
+   * Immutable snapshot of one folder.
+   */
+  public static class Shelf {
+
+    private final String path;
+    private final List<Entry> entries;
+    private final Map<String, Entry> byName;
+    private final long version;
+    private final long lastModified;
+    private volatile String contentHash;
+
+    Shelf(String path, List<Entry> entries, long version) {
+      this.path = path;
+      this.entries = Collections.unmodifiableList(entries);
+      this.byName = new HashMap<>(entries.size() * 4 / 3 + 1);
+      this.version = version;
+      long lm = 0;
+      for (Entry e : entries) {
+        lm = Math.max(lm, e.getLastModified());
+        byName.put(e.getName(), e);
+      }
+      this.lastModified = lm;
+    }
+
+    /**
+     * @return path relative to the books root, empty for the root shelf
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+     * @return the sorted children
+     */
+    public List<Entry> getEntries() {
+      return entries;
+    }
+
+    /**
+     * @return the child of that name or <code>null</code>
+     */
+    public Entry getEntry(String name) {
+      return byName.get(name);
+    }
+
+    /**
+     * @return index wide unique stamp, changes whenever the children change
+     */
+    public long getVersion() {
+      return version;
+    }
+
+    /**
+     * @return latest modification time of all children
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    /**
+     * @return hash of names, sizes and modification times of the children,
+     *         unlike the version it is the same across restarts and servers
+     */
+    public String getContentHash() {
+      String h = contentHash;
+      if (h == null) {
+        try {
+          MessageDigest md = MessageDigest.getInstance("SHA-256");
+          ByteBuffer b = ByteBuffer.allocate(17);
+          for (Entry e : entries) {
+            md.update(e.getName().getBytes(StandardCharsets.UTF_8));
+            b.clear();
+            b.put((byte) (e.isDirectory() ? 1 : 0)).putLong(e.getLastModified()).putLong(e.getLength());
+            md.update(b.array());
+          }
+          byte[] digest = md.digest();
+          StringBuilder sb = new StringBuilder(32);
+          for (int i = 0; i < 16; i++) {
+            sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+          }
+          h = sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+          h = Long.toHexString(version);
+        }
+        contentHash = h;
+      }
+      return h;
+    }
+  }
+
+  /**
+   * A file or folder on a shelf.
+   */
+  public static class Entry {
+
+    private final String name;
+    private final boolean directory;
+    private final long lastModified;
+    private final long length;
+
+    public Entry(String name, boolean directory, long lastModified, long length) {
+      this.name = name;
+      this.directory = directory;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDirectory() {
+      return directory;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry e = (Entry) o;
+      return directory == e.directory && lastModified == e.lastModified && length == e.length
+          && name.equals(e.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode() * 31 + Long.hashCode(lastModified);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jakarta.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * LRU of rendered shelf pages. A page is valid for the version of its shelf
+ * in the {@link ShelfIndex}; pages of a shelf are dropped when the shelf
+ * changes or when the catalog learns new metadata of one of its books.
+ * A page rendered while its shelf was invalidated is not stored.
+ *
+ * @author thomas
+ *
+ */
+@Service
+public class ShelfPageCache implements ShelfIndex.Listener, BookCatalog.Listener
+{
+  @Value("${bookserver.shelf.page-cache.size:256}")
+  private int maxPages;
+
+  @Autowired
+  private ShelfIndex shelfIndex;
+
+  @Autowired
+  private BookCatalog bookCatalog;
+
+  private final LinkedHashMap<String, Page> pages = new LinkedHashMap<>(64, 0.75f, true);
+
+  /** counts invalidations, a render started before one may be stale */
+  private long generation;
+
+  @PostConstruct
+  public void start() {
+    shelfIndex.addListener(this);
+    bookCatalog.addListener(this);
+  }
+
+  /**
+   * @return the page if it was rendered from this version of the shelf
+   */
+  public synchronized Page get(String key, ShelfIndex.Shelf shelf) {
+    Page p = pages.get(key);
+    if (p == null || p.shelfVersion != shelf.getVersion()) {
+      return null;
+    }
+    return p;
+  }
+
+  /**
+   * @return the current generation, to be passed to {@link #put} with the
+   *         page rendered afterwards
+   */
+  public synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Stores a page unless something was invalidated since the generation was
+   * taken.
+   *
+   * @return the page
+   */
+  public Page put(String key, ShelfIndex.Shelf shelf, byte[] html, long renderedGeneration) {
+    Page p = new Page(shelf.getPath(), shelf.getVersion(), html);
+    synchronized (this) {
+      if (renderedGeneration == generation && maxPages > 0) {
+        pages.put(key, p);
+        if (pages.size() > maxPages) {
+          Iterator<Page> it = pages.values().iterator();
+          it.next();
+          it.remove();
+        }
+      }
+    }
+    return p;
+  }
+
+  public synchronized int size() {
+    return pages.size();
+  }
+
+  @Override
+  public void shelfChanged(ShelfIndex.Shelf old, ShelfIndex.Shelf current) {
+    invalidate(old != null ? old.getPath() : current.getPath());
+  }
+
+  @Override
+  public void bookChanged(String path, BookMetadata md) {
+    int slash = path.lastIndexOf('/');
+    invalidate(slash == -1 ? "" : path.substring(0, slash));
+  }
+
+  /**
+   * Drops the pages of a shelf.
+   */
+  public synchronized void invalidate(String shelfPath) {
+    generation++;
+    for (Iterator<Map.Entry<String, Page>> it = pages.entrySet().iterator(); it.hasNext();) {
+      if (it.next().getValue().shelfPath.equals(shelfPath)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * A rendered page with its entity tag.
+   */
+  public static class Page {
+
+    private final String shelfPath;
+    private final long shelfVersion;
+    private final byte[] html;
+    private final String eTag;
+
+    Page(String shelfPath, long shelfVersion, byte[] html) {
+      this.shelfPath = shelfPath;
+      this.shelfVersion = shelfVersion;
+      this.html = html;
+      this.eTag = "\"" + digest(html) + "\"";
+    }
+
+    public byte[] getHtml() {
+      return html;
+    }
+
+    public String getETag() {
+      return eTag;
+    }
+
+    static String digest(byte[] data) {
+      try {
+        byte[] d = MessageDigest.getInstance("SHA-256").digest(data);
+        StringBuilder sb = new StringBuilder(32);
+        for (int i = 0; i < 16; i++) {
+          sb.append(Character.forDigit((d[i] >> 4) & 0xf, 16)).append(Character.forDigit(d[i] & 0xf, 16));
+        }
+        return sb.toString();
+      } catch (NoSuchAlgorithmException e) {
+        return Integer.toHexString(new String(data, StandardCharsets.UTF_8).hashCode());
+      }
+    }
+  }
+}
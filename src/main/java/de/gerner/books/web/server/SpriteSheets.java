@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Composes the covers of a shelf page into one JPEG so the page needs a
+ * single image request. The sheets are made from the preview thumbnails,
+ * missing ones are generated first, and are kept in a small LRU.
+ * <p>
+ * A sheet is named by a digest of the page's books with their modification
+ * times and sizes, so a changed book yields a new name and the old sheet can
+ * be cached by clients forever. Pages are rendered with single images until
+ * their sheet is ready; the pages of the shelf are then dropped from the
+ * {@link ShelfPageCache} so the next render picks the sheet up.
+ *
+ * @author thomas
+ *
+ */
+@Service
+public class SpriteSheets
+{
+  private static final Logger LOG = LoggerFactory.getLogger(SpriteSheets.class);
+
+  /** size of a cover on the shelf page in CSS pixels */
+  static final int CELL_WIDTH = 100;
+  static final int CELL_HEIGHT = 160;
+
+  @Value("${bookserver.sprites.enabled:false}")
+  private boolean enabled;
+
+  @Value("${bookserver.sprites.cache-size:64}")
+  private int maxSheets;
+
+  @Value("${bookserver.ebooks.root}")
+  private String booksRoot;
+
+  @Autowired
+  private PreviewGenerator previewGenerator;
+
+  @Autowired
+  private ShelfPageCache pageCache;
+
+  @Autowired
+  private BooksMetrics metrics;
+
+  private final LinkedHashMap<String, Sheet> sheets = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  private ThreadPoolExecutor executor;
+
+  private BufferedImage noPreview;
+
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(64), r -> {
+      Thread t = new Thread(r, "sprites");
+      t.setDaemon(true);
+      t.setPriority(Thread.MIN_PRIORITY);
+      return t;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    try (InputStream is = getClass().getResourceAsStream("/static/books/NoPreview.png")) {
+      if (is != null) {
+        noPreview = ImageIO.read(is);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed loading NoPreview image", e);
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Looks up the sheet of a page and queues its composition if there is none.
+   *
+   * @param shelfPath path of the shelf
+   * @param page the zero based page
+   * @param books the books of the page in the order shown
+   * @return the sheet or <code>null</code> if it is not ready yet
+   */
+  public Sheet getSheet(String shelfPath, int page, List<ShelfIndex.Entry> books) {
+    if (!enabled || books.isEmpty()) {
+      return null;
+    }
+    int height = previewGenerator.chooseHeight(2 * CELL_HEIGHT);
+    String id = sheetId(shelfPath, books, height);
+    Sheet sheet;
+    synchronized (this) {
+      sheet = sheets.get(id);
+    }
+    if (sheet == null && pending.add(id)) {
+      List<ShelfIndex.Entry> copy = new ArrayList<>(books);
+      try {
+        executor.execute(() -> compose(id, shelfPath, page, copy, height));
+      } catch (RejectedExecutionException e) {
+        LOG.debug("Sprite queue full, deferring {}", id);
+        pending.remove(id);
+      }
+    }
+    return sheet;
+  }
+
+  /**
+   * @return the sheet of this name or <code>null</code>
+   */
+  public synchronized Sheet get(String id) {
+    return sheets.get(id);
+  }
+
+  private String sheetId(String shelfPath, List<ShelfIndex.Entry> books, int height) {
+    StringBuilder sb = new StringBuilder(shelfPath).append('\n');
+    for (ShelfIndex.Entry e : books) {
+      sb.append(e.getName()).append('\t').append(e.getLastModified()).append('\t').append(e.getLength()).append('\n');
+    }
+    sb.append(height).append('\t').append(previewGenerator.getJpegQuality());
+    return ShelfPageCache.Page.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void compose(String id, String shelfPath, int page, List<ShelfIndex.Entry> books, int height) {
+    long t0 = System.nanoTime();
+    try {
+      int cellWidth = Math.round((float) CELL_WIDTH * height / CELL_HEIGHT);
+      BufferedImage img = new BufferedImage(cellWidth * books.size(), height, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = img.createGraphics();
+      g.setColor(Color.WHITE);
+      g.fillRect(0, 0, img.getWidth(), img.getHeight());
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      String base = shelfPath.isEmpty() ? "" : shelfPath + "/";
+      for (int i = 0; i < books.size(); i++) {
+        BufferedImage cover = readPreview(base + books.get(i).getName(), height);
+        if (cover != null) {
+          // stretched to the cell like the single images on the page
+          g.drawImage(cover, i * cellWidth, 0, cellWidth, height, null);
+        }
+      }
+      g.dispose();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+      PreviewGenerator.writeJpeg(img, previewGenerator.getJpegQuality(), out);
+      put(new Sheet(id, shelfPath + "?" + page, out.toByteArray(), books.size()));
+      metrics.spriteComposed(System.nanoTime() - t0);
+      pageCache.invalidate(shelfPath);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Failed composing sprite sheet of {} page {}", shelfPath, page + 1, e);
+    } finally {
+      pending.remove(id);
+    }
+  }
+
+  /**
+   * @return the preview of the book in this height, generated if missing or
+   *         outdated, the NoPreview image if there is none
+   */
+  private BufferedImage readPreview(String bookName, int height) throws IOException {
+    File bookFile = new File(booksRoot, bookName);
+    String name = PreviewGenerator.previewName(bookName);
+    if (!previewGenerator.isUpToDate(bookFile, name) && !previewGenerator.hasFailed(bookFile, name)) {
+      previewGenerator.generate(bookFile, name);
+    }
+    byte[] data = previewGenerator.read(name, bookFile.lastModified(), height, "jpg");
+    if (data != null) {
+      BufferedImage img = ImageIO.read(new ByteArrayInputStream(data));
+      if (img != null) {
+        return img;
+      }
+    }
+    return noPreview;
+  }
+
+  /**
+   * Stores a sheet replacing older ones of the same page.
+   */
+  private void put(Sheet sheet) {
+    List<String> evicted = new ArrayList<>();
+    synchronized (this) {
+      for (Iterator<Sheet> it = sheets.values().iterator(); it.hasNext();) {
+        if (it.next().page.equals(sheet.page)) {
+          it.remove();
+        }
+      }
+      sheets.put(sheet.id, sheet);
+      while (sheets.size() > maxSheets) {
+        Iterator<Sheet> it = sheets.values().iterator();
+        evicted.add(it.next().page);
+        it.remove();
+      }
+    }
+    // cached pages must not point at a sheet which is gone
+    for (String page : evicted) {
+      pageCache.invalidate(page.substring(0, page.lastIndexOf('?')));
+    }
+  }
+
+  /**
+   * A composed sheet, the covers are side by side in the order of the page.
+   */
+  public static class Sheet {
+
+    private final String id;
+    private final String page;
+    private final byte[] jpeg;
+    private final int count;
+
+    Sheet(String id, String page, byte[] jpeg, int count) {
+      this.id = id;
+      this.page = page;
+      this.jpeg = jpeg;
+      this.count = count;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public byte[] getJpeg() {
+      return jpeg;
+    }
+
+    public String getUrl() {
+      return "/books/sprite/" + id + ".jpg";
+    }
+
+    /**
+     * @return the CSS showing the cover at this index of the sheet
+     */
+    public String getStyle(int index) {
+      return "background-image:url('" + getUrl() + "');background-size:" + (count * CELL_WIDTH) + "px "
+          + CELL_HEIGHT + "px;background-position:" + (-index * CELL_WIDTH) + "px 0";
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+
+
+/**
+ * Keeps the previews in a folder tree mirroring the library. The default
+ * height is stored as <code>name.png</code> and <code>name.jpg</code>, the
+ * other heights as <code>name@height.png</code> and so on. A failure is
+ * remembered by an empty <code>name.png.failed</code> file.
+ *
+ * @author thomas
+ *
+ */
+public class TreePreviewStore implements PreviewStore
+{
+  private static final String FAILED_SUFFIX = ".png.failed";
+
+  private final File imgRoot;
+
+  private final int[] heights;
+
+  /**
+   * @param imgRoot the preview cache folder
+   * @param heights the preview heights
+   */
+  public TreePreviewStore(File imgRoot, int[] heights) {
+    this.imgRoot = imgRoot;
+    this.heights = heights.clone();
+    Arrays.sort(this.heights);
+  }
+
+  @Override
+  public boolean isUpToDate(String name, long bookLastModified) {
+    for (int h : heights) {
+      for (String format : PreviewGenerator.FORMATS) {
+        if (variant(name, h, format).lastModified() < bookLastModified) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean hasFailed(String name, long bookLastModified) {
+    return failureMarker(name).lastModified() >= bookLastModified;
+  }
+
+  @Override
+  public void markFailed(String name) throws IOException {
+    File marker = failureMarker(name);
+    marker.getParentFile().mkdirs();
+    if (!marker.createNewFile()) {
+      marker.setLastModified(System.currentTimeMillis());
+    }
+  }
+
+  @Override
+  public boolean link(String name, String coverHash) {
+    return false;
+  }
+
+  @Override
+  public void put(String name, String coverHash, Map<String, byte[]> variants) throws IOException {
+    for (int h : heights) {
+      for (String format : PreviewGenerator.FORMATS) {
+        byte[] data = variants.get(PreviewStore.variantKey(h, format));
+        if (data != null) {
+          writeAtomically(data, variant(name, h, format));
+        }
+      }
+    }
+    Files.deleteIfExists(failureMarker(name).toPath());
+  }
+
+  @Override
+  public byte[] read(String name, long bookLastModified, int height, String format) throws IOException {
+    File f = variant(name, height, format);
+    if (!f.isFile() || f.lastModified() < bookLastModified) {
+      return null;
+    }
+    return Files.readAllBytes(f.toPath());
+  }
+
+  @Override
+  public void close() {
+  }
+
+  /**
+   * @return the file of the preview in this height and format
+   */
+  File variant(String name, int height, String format) {
+    StringBuilder sb = new StringBuilder(name);
+    if (height != heights[0]) {
+      sb.append('@').append(height);
+    }
+    sb.append('.').append(format);
+    return new File(imgRoot, sb.toString());
+  }
+
+  private File failureMarker(String name) {
+    return new File(imgRoot, name + FAILED_SUFFIX);
+  }
+
+  /**
+   * Writes the image to a temporary file next to the target and renames it.
+   */
+  private static void writeAtomically(byte[] data, File target) throws IOException {
+    target.getParentFile().mkdirs();
+    File tmp = File.createTempFile("." + target.getName(), ".tmp", target.getParentFile());
+    try {
+      Files.write(tmp.toPath(), data);
+      try {
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+}
@@ -0,0 +1,331 @@
+/**
+ * Copyright (c) 2026 Thomas Gerner
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. All advertising materials mentioning features or use of this software
+ *    must display the following acknowledgment:
+ *      This product includes software developed by Thomas Gerner.
+ * 4. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.gerner.books.web.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A ZIP archive of files with <code>STORED</code> entries, generated while it
+ * is read. The length of the archive is known up front from the file sizes.
+ * The CRC of an entry is computed right before the entry is written, the
+ * {@link CrcCache} keeps it for later bundles of the same file version.
+ * <p>
+ * ZIP64 is not supported, {@link #needsZip64()} tells when the archive
+ * would need it.
+ *
+ * @author thomas
+ *
+ */
+public class ZipBundle
+{
+  private static final int LOCAL_HEADER = 30;
+  private static final int CENTRAL_HEADER = 46;
+  private static final int END_OF_CENTRAL_DIR = 22;
+  private static final int VERSION = 10;
+  /** names are UTF-8 */
+  private static final int FLAGS = 0x0800;
+  private static final long MAX_32 = 0xFFFFFFFFL;
+  private static final int MAX_ENTRIES = 0xFFFF;
+
+  private final List<Item> items = new ArrayList<>();
+  private final CrcCache crcs;
+  private long centralDirOffset;
+  private long centralDirSize;
+
+  public ZipBundle(CrcCache crcs) {
+    this.crcs = crcs;
+  }
+
+  /**
+   * Adds a file, its size and modification time must not change until the
+   * archive is read.
+   */
+  public void add(String name, File file, long size, long lastModified) {
+    Item item = new Item(name.getBytes(StandardCharsets.UTF_8), file, size, lastModified);
+    item.offset = centralDirOffset;
+    items.add(item);
+    centralDirOffset += LOCAL_HEADER + item.name.length + size;
+    centralDirSize += CENTRAL_HEADER + item.name.length;
+  }
+
+  public int size() {
+    return items.size();
+  }
+
+  /**
+   * @return length of the archive in bytes
+   */
+  public long getLength() {
+    return centralDirOffset + centralDirSize + END_OF_CENTRAL_DIR;
+  }
+
+  /**
+   * @return <code>true</code> if the archive has too many entries or is too
+   *         large for a plain ZIP
+   */
+  public boolean needsZip64() {
+    if (items.size() > MAX_ENTRIES || centralDirOffset > MAX_32 || centralDirSize > MAX_32) {
+      return true;
+    }
+    for (Item item : items) {
+      if (item.size >= MAX_32) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return a channel delivering the archive, books are read as the channel
+   *         is read
+   */
+  public ReadableByteChannel open() {
+    return new BundleChannel();
+  }
+
+  private static ByteBuffer localHeader(Item item) {
+    ByteBuffer b = ByteBuffer.allocate(LOCAL_HEADER + item.name.length).order(ByteOrder.LITTLE_ENDIAN);
+    b.putInt(0x04034b50);
+    b.putShort((short) VERSION);
+    b.putShort((short) FLAGS);
+    b.putShort((short) 0);
+    b.putInt(dosTime(item.lastModified));
+    b.putInt(item.crc);
+    b.putInt((int) item.size);
+    b.putInt((int) item.size);
+    b.putShort((short) item.name.length);
+    b.putShort((short) 0);
+    b.put(item.name);
+    b.flip();
+    return b;
+  }
+
+  private ByteBuffer centralDirectory() {
+    ByteBuffer b = ByteBuffer.allocate((int) centralDirSize + END_OF_CENTRAL_DIR).order(ByteOrder.LITTLE_ENDIAN);
+    for (Item item : items) {
+      b.putInt(0x02014b50);
+      b.putShort((short) VERSION);
+      b.putShort((short) VERSION);
+      b.putShort((short) FLAGS);
+      b.putShort((short) 0);
+      b.putInt(dosTime(item.lastModified));
+      b.putInt(item.crc);
+      b.putInt((int) item.size);
+      b.putInt((int) item.size);
+      b.putShort((short) item.name.length);
+      b.putShort((short) 0);
+      b.putShort((short) 0);
+      b.putShort((short) 0);
+      b.putShort((short) 0);
+      b.putInt(0);
+      b.putInt((int) item.offset);
+      b.put(item.name);
+    }
+    b.putInt(0x06054b50);
+    b.putShort((short) 0);
+    b.putShort((short) 0);
+    b.putShort((short) items.size());
+    b.putShort((short) items.size());
+    b.putInt((int) centralDirSize);
+    b.putInt((int) centralDirOffset);
+    b.putShort((short) 0);
+    b.flip();
+    return b;
+  }
+
+  /**
+   * @return MS-DOS date in the upper and time in the lower half
+   */
+  static int dosTime(long millis) {
+    LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    if (t.getYear() < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+        | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+  }
+
+  private static class Item {
+
+    private final byte[] name;
+    private final File file;
+    private final long size;
+    private final long lastModified;
+    private long offset;
+    private int crc;
+
+    Item(byte[] name, File file, long size, long lastModified) {
+      this.name = name;
+      this.file = file;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * Hands out the archive headers and book contents in order.
+   */
+  private class BundleChannel implements ReadableByteChannel {
+
+    private int next;
+    private ByteBuffer meta;
+    private FileChannel data;
+    private long dataRemaining;
+    private boolean trailer;
+    private boolean open = true;
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      int total = 0;
+      while (dst.hasRemaining()) {
+        if (meta != null && meta.hasRemaining()) {
+          int n = Math.min(meta.remaining(), dst.remaining());
+          ByteBuffer slice = meta.duplicate();
+          slice.limit(slice.position() + n);
+          dst.put(slice);
+          meta.position(meta.position() + n);
+          total += n;
+        } else if (data != null) {
+          if (dataRemaining == 0) {
+            data.close();
+            data = null;
+            continue;
+          }
+          int limit = dst.limit();
+          if (dst.remaining() > dataRemaining) {
+            dst.limit(dst.position() + (int) dataRemaining);
+          }
+          int n;
+          try {
+            n = data.read(dst);
+          } finally {
+            dst.limit(limit);
+          }
+          if (n < 0) {
+            throw new IOException("Book shrank while bundling");
+          }
+          dataRemaining -= n;
+          total += n;
+        } else if (next < items.size()) {
+          Item item = items.get(next++);
+          data = FileChannel.open(item.file.toPath(), StandardOpenOption.READ);
+          if (data.size() != item.size) {
+            throw new IOException("Book " + item.file + " changed while bundling");
+          }
+          item.crc = crcs.crc(item.file, item.size, item.lastModified, data);
+          dataRemaining = item.size;
+          meta = localHeader(item);
+        } else if (!trailer) {
+          trailer = true;
+          meta = centralDirectory();
+        } else {
+          return total == 0 ? -1 : total;
+        }
+      }
+      return total;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+      open = false;
+      if (data != null) {
+        data.close();
+        data = null;
+      }
+    }
+  }
+
+  /**
+   * CRCs of book versions by path, size and modification time. The least
+   * recently bundled books are dropped beyond the maximum number of entries,
+   * so books removed from the library do not stay forever.
+   */
+  public static class CrcCache {
+
+    private final LinkedHashMap<String, long[]> crcs;
+
+    public CrcCache(int maxEntries) {
+      crcs = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+          return size() > maxEntries;
+        }
+      };
+    }
+
+    int crc(File file, long size, long lastModified, FileChannel channel) throws IOException {
+      String key = file.getAbsolutePath();
+      long[] known;
+      synchronized (crcs) {
+        known = crcs.get(key);
+      }
+      if (known != null && known[0] == size && known[1] == lastModified) {
+        return (int) known[2];
+      }
+      CRC32 crc = new CRC32();
+      ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+      long pos = 0;
+      while (pos < size) {
+        buf.clear();
+        int n = channel.read(buf, pos);
+        if (n < 0) {
+          throw new IOException("Book " + file + " shrank while bundling");
+        }
+        buf.flip();
+        crc.update(buf);
+        pos += n;
+      }
+      synchronized (crcs) {
+        crcs.put(key, new long[] { size, lastModified, crc.getValue() });
+      }
+      return (int) crc.getValue();
+    }
+  }
+}